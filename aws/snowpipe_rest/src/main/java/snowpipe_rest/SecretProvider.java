@@ -0,0 +1,39 @@
+package snowpipe_rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+import java.util.Properties;
+
+// Where the handler gets the Snowflake connection properties:
+//  - url: Snowflake account URL
+//  - user: Snowflake user
+//  - private_key: Snowflake private key
+//  - role: Snowflake role to use
+public interface SecretProvider {
+  Properties getSecret();
+
+  // SNOWFLAKE_SECRET_JSON holds the secret itself, e.g. for running locally in the Lambda
+  // runtime emulator; otherwise it is read from the Secrets Manager secret named by SNOWFLAKE_SECRET
+  static SecretProvider fromEnvironment() {
+    String json = System.getenv("SNOWFLAKE_SECRET_JSON");
+    if (null != json && !json.isEmpty())
+      return () -> parse(json);
+    return new SecretsManagerSecretProvider(System.getenv("AWS_REGION"), System.getenv("SNOWFLAKE_SECRET"));
+  }
+
+  static Properties parse(String secret) {
+    Properties props = new Properties();
+    try {
+      Map<String,String> credsMap = new ObjectMapper().readValue(secret, new TypeReference<Map<String,String>>() {});
+      props.putAll(credsMap);
+    }
+    catch (JsonProcessingException je) {
+      // Handle errors from parsing JSON
+      throw new RuntimeException("Unable to parse secret string as JSON.");
+    }
+    return props;
+  }
+}
@@ -0,0 +1,41 @@
+package snowpipe_rest;
+
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
+
+import java.util.Properties;
+
+// Reads the secret from Secrets Manager. Nothing is done until the secret is first needed, and the
+// client uses the JDK's URL connection rather than the Apache HTTP client, which is slower to start.
+public class SecretsManagerSecretProvider implements SecretProvider {
+  private final String region;
+  private final String secret_name;
+
+  public SecretsManagerSecretProvider(String region, String secret_name) {
+    this.region = region;
+    this.secret_name = secret_name;
+  }
+
+  @Override
+  public Properties getSecret() {
+    String secret;
+    try (SecretsManagerClient secretsClient = SecretsManagerClient.builder()
+        .region(Region.of(this.region))
+        .credentialsProvider(DefaultCredentialsProvider.create())
+        .httpClient(UrlConnectionHttpClient.create())
+        .build()) {
+      GetSecretValueRequest secret_req = GetSecretValueRequest.builder().secretId(this.secret_name).build();
+      GetSecretValueResponse secret_resp = secretsClient.getSecretValue(secret_req);
+      secret = secret_resp.secretString();
+    }
+    catch (Exception e) {
+      // Handle errors from Secrets Manager
+      throw new RuntimeException(e);
+    }
+    return SecretProvider.parse(secret);
+  }
+}
@@ -4,123 +4,142 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
-import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
-import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 
-import net.snowflake.ingest.streaming.InsertValidationResponse;
-import net.snowflake.ingest.streaming.OpenChannelRequest;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClientFactory;
+import com.example.SnowpipeRest.core.IngestBackend;
+import com.example.SnowpipeRest.core.IngestMetrics;
+import com.example.SnowpipeRest.core.SnowpipeInsertResponse;
+import com.example.SnowpipeRest.core.SnowpipeRestBackpressureException;
+import com.example.SnowpipeRest.core.SnowpipeRestEngine;
+import com.example.SnowpipeRest.core.SnowpipeRestException;
+import com.example.SnowpipeRest.core.SnowpipeRestSettings;
 
+import org.crac.Core;
+import org.crac.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Map;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Properties;
 import java.util.HashMap;
 import java.util.UUID;
 
-public class SnowpipeRestHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+// Runs the ingest engine shared with the Spring Boot service, configured by the same SNOWPIPEREST_*
+// environment variables: rows are batched, kept for replay until committed, and replayed into
+// a reopened channel when the SDK invalidates one.
+// Startup is kept short for cold starts. The secret and the engine are created on first use and
+// reused by later invocations. Tables listed in SNOWPIPEREST_PREFETCH_TABLES
+// (DATABASE.SCHEMA.TABLE, comma-separated) have their channels opened in the background as soon
+// as the instance starts, so the first request to them does not wait for it.
+// With SnapStart, nothing is connected in the snapshot: the engine is closed before the
+// checkpoint, and each restored instance takes new channel names and reconnects in the
+// background, as channel names shared between instances would invalidate each other.
+public class SnowpipeRestHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>, Resource {
 
   private ObjectMapper objectMapper = new ObjectMapper();
-  private SnowflakeStreamingIngestClient snowpipe_client;
-  private Map<String,SnowflakeStreamingIngestChannel> snowpipe_channels = new HashMap<String,SnowflakeStreamingIngestChannel>();
-  private Map<String,Integer> insert_count = new HashMap<String,Integer>();
-  private String suffix = UUID.randomUUID().toString();
+  private final IngestBackend backend;
+  private final SecretProvider secrets;
+  private final List<String[]> prefetch_tables;
+  private final boolean log_events;
+  private final boolean wait_for_commit;
+  private final long commit_timeout_ms;
+  private final int errors_limit;
+  private SnowpipeRestEngine engine;
 
   public SnowpipeRestHandler() {
-    // get secret name from environment variable
-
-    // get secret from Secrets Manager
-    //  - url: Snowflake account URL
-    //  - user: Snowflake user
-    //  - private_key: Snowflake private key
-    //  - role: Snowflake role to use
-
-    // Get Secret from Secrets Manager. Secret name stored in environment variable.
-    String region = System.getenv("AWS_REGION");
-    String secret_name = System.getenv("SNOWFLAKE_SECRET");
-    SecretsManagerClient secretsClient = SecretsManagerClient.builder()
-      .region(Region.of(region))
-      .credentialsProvider(DefaultCredentialsProvider.create())
-      .build();
-      
-    String secret;
-    try {
-      GetSecretValueRequest secret_req = GetSecretValueRequest.builder().secretId(secret_name).build();
-      GetSecretValueResponse secret_resp = secretsClient.getSecretValue(secret_req);
-      secret = secret_resp.secretString();
-    }
-    catch (Exception e) {
-      // Handle errors from Secrets Manager
-      throw new RuntimeException(e);
-    }
+    // SNOWPIPEREST_BACKEND=local runs against the in-process simulation, configured by SNOWPIPEREST_LOCAL_BACKEND
+    this(IngestBackend.of(System.getenv("SNOWPIPEREST_BACKEND"), System.getenv("SNOWPIPEREST_LOCAL_BACKEND")),
+      SecretProvider.fromEnvironment());
+  }
 
-    // Parse Secret as JSON
-    java.util.Properties props = new Properties();
-    try {
-      JsonNode credsJson = objectMapper.readTree(secret);
-      Map<String,String> credsMap = objectMapper.convertValue(credsJson, new TypeReference<Map<String,String>>() {});
-      props.putAll(credsMap);
-    }
-    catch (JsonProcessingException je) {
-      // Handle errors from parsing JSON
-      throw new RuntimeException("Unable to parse secret string as JSON.");
-    }
+  public SnowpipeRestHandler(IngestBackend backend, SecretProvider secrets) {
+    this.backend = backend;
+    this.secrets = secrets;
+    this.prefetch_tables = parseTables(System.getenv("SNOWPIPEREST_PREFETCH_TABLES"));
+    this.log_events = "true".equalsIgnoreCase(System.getenv("SNOWPIPEREST_LOG_EVENTS"));
+    // SNOWPIPEREST_ACK_MODE=accepted returns as soon as the rows are accepted, without waiting for the commit
+    this.wait_for_commit = !"accepted".equalsIgnoreCase(System.getenv("SNOWPIPEREST_ACK_MODE"));
+    // SNOWPIPEREST_COMMIT_TIMEOUT, as the Spring Boot service names it, is also accepted
+    this.commit_timeout_ms = getLong("SNOWPIPEREST_COMMIT_TIMEOUT_MS", getLong("SNOWPIPEREST_COMMIT_TIMEOUT", 20000));
+    this.errors_limit = (int)getLong("SNOWPIPEREST_ERRORS_LIMIT", -1);
+    // Load the JSON classes now, so the work is done once at init, or captured in the snapshot
+    new SnowpipeInsertResponse(0, 0, 0).toString();
+    Core.getGlobalContext().register(this);
+    // Under SnapStart this runs before the snapshot, so connecting waits for the restore
+    if (!"snap-start".equals(System.getenv("AWS_LAMBDA_INITIALIZATION_TYPE")))
+      prefetch();
+  }
 
-    // Connect to Snowflake with credentials from Secret.
-    try{
-      // Make Snowflake Streaming Ingest Client
-      this.snowpipe_client = SnowflakeStreamingIngestClientFactory.builder("SNOWPIPE_REST_" + this.suffix).setProperties(props).build();
-    }
-    catch (Exception e) {
-      // Handle Exception for Snowpipe Streaming objects
-      throw new RuntimeException(e);
+  private static long getLong(String name, long dflt) {
+    String value = System.getenv(name);
+    return (null == value || value.isEmpty()) ? dflt : Long.parseLong(value.trim());
+  }
+
+  private static List<String[]> parseTables(String tables) {
+    List<String[]> names = new ArrayList<String[]>();
+    if (null == tables || tables.trim().isEmpty())
+      return names;
+    for (String table : tables.split(",")) {
+      String[] name = table.trim().split("\\.");
+      if (3 != name.length)
+        throw new RuntimeException(String.format("Prefetch table must be DATABASE.SCHEMA.TABLE: %s", table));
+      names.add(name);
     }
+    return names;
   }
 
-  // Gets or creates and stores Snowflake Streaming Ingest Channel for the table
-  private SnowflakeStreamingIngestChannel getIngestChannel(String database, String schema, String table) {
-    if (null == database)
-      throw new RuntimeException("Must specify database");
-    if (null == schema)
-      throw new RuntimeException("Must specify schema");
-    if (null == table)
-      throw new RuntimeException("Must specify table");
-    String key = String.format("%s.%s.%s", database, schema, table);
-    if (this.snowpipe_channels.containsKey(key))
-      return this.snowpipe_channels.get(key);
+  // Connects and opens the prefetch tables' channels on a background thread
+  private void prefetch() {
+    if (this.prefetch_tables.isEmpty())
+      return;
+    Thread prefetcher = new Thread(() -> {
+      for (String[] name : this.prefetch_tables) {
+        try {
+          getEngine().open(name[0], name[1], name[2]);
+        }
+        catch (RuntimeException e) {
+          System.out.println(String.format("Unable to prefetch channel for %s.%s.%s: %s", name[0], name[1], name[2], e.getMessage()));
+        }
+      }
+    }, "snowpipe-rest-prefetch");
+    prefetcher.setDaemon(true);
+    prefetcher.start();
+  }
 
-    try {
-      OpenChannelRequest request1 = OpenChannelRequest.builder("SNOWPIPE_REST_CHANNEL_" + this.suffix)
-        .setDBName(database)
-        .setSchemaName(schema)
-        .setTableName(table)
-        .setOnErrorOption(OpenChannelRequest.OnErrorOption.CONTINUE)
-        .build();
-      SnowflakeStreamingIngestChannel channel = this.snowpipe_client.openChannel(request1);
-      this.snowpipe_channels.put(key, channel);
-      this.insert_count.put(key, 0);
-      return channel;
+  // Makes the engine on first use, reading the secret then. Every engine gets a new instance
+  // id, which names its client and channels, so restored snapshots never share them.
+  private synchronized SnowpipeRestEngine getEngine() {
+    if (null == this.engine) {
+      Properties props = this.backend.needsCredentials() ? this.secrets.getSecret() : new Properties();
+      SnowpipeRestSettings settings = SnowpipeRestSettings.fromEnvironment(System.getenv())
+        .setInstance_id(UUID.randomUUID().toString());
+      this.engine = new SnowpipeRestEngine(settings, this.backend, props, table -> IngestMetrics.NONE);
     }
-    catch (Exception e) {
-      // Handle Exception for Snowpipe Streaming objects
-      throw new RuntimeException(e);
+    return this.engine;
+  }
+
+  @Override
+  public synchronized void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+    if (null != this.engine) {
+      this.engine.close();
+      this.engine = null;
     }
   }
 
+  @Override
+  public void afterRestore(org.crac.Context<? extends Resource> context) throws Exception {
+    prefetch();
+  }
+
   // Path should end with {database}/{schema}/{table}
   private String[] pathToTable(String path) {
     String[] tableName = {null, null, null};
     String[] pieces = path.split("/");
-    if (3 > pieces.length) 
+    if (3 > pieces.length)
       throw new RuntimeException(String.format("Path (%s) [%s] is invalid (%d fields)", path, pieces.toString(), pieces.length));
     tableName[0] = pieces[pieces.length - 3];
     tableName[1] = pieces[pieces.length - 2];
@@ -129,91 +148,79 @@ public class SnowpipeRestHandler implements RequestHandler<APIGatewayProxyReques
     return tableName;
   }
 
+  // Bodies sent as application/x-ndjson hold one JSON object per line; others are a JSON array
+  private static boolean isNdjson(Map<String,String> headers) {
+    if (null == headers)
+      return false;
+    for (Map.Entry<String,String> header : headers.entrySet()) {
+      if ("content-type".equalsIgnoreCase(header.getKey()) && null != header.getValue())
+        return header.getValue().trim().toLowerCase().startsWith("application/x-ndjson");
+    }
+    return false;
+  }
+
   // Lambda handler
   @Override
   public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent event, Context context) {
     // Process body
-    try {
-      System.out.println(objectMapper.writeValueAsString(event));
-    }
-    catch (Exception e) {
-      throw new RuntimeException(e);
+    String body = (null == event.getBody()) ? "" : event.getBody();
+    // Logging every event costs a serialization per request, so it is off unless SNOWPIPEREST_LOG_EVENTS=true
+    if (this.log_events) {
+      try {
+        System.out.println(objectMapper.writeValueAsString(event));
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      System.out.println(String.format("BODY: %s", body));
     }
-    String body = event.getBody();
-    System.out.println(String.format("BODY: %s", body));
-    List<Object> rowStrings;
-    List<Map<String,Object>> rows;
+    byte[] bytes = Boolean.TRUE.equals(event.getIsBase64Encoded())
+      ? Base64.getDecoder().decode(body)
+      : body.getBytes(StandardCharsets.UTF_8);
+
+    // Insert into the table named by the path
+    String[] tableName = pathToTable(event.getPath());
+    SnowpipeRestEngine engine = getEngine();
+    SnowpipeInsertResponse sp_resp;
     try {
-      // Parse JSON body
-      JsonNode jsonNode = this.objectMapper.readTree(body);
-      // List of strings for error reporting
-      rowStrings = objectMapper.convertValue(jsonNode, new TypeReference<List<Object>>() {});
-      // List of Map<String,Object> for inserting
-      rows = objectMapper.convertValue(jsonNode, new TypeReference<List<Map<String, Object>>>(){});
+      sp_resp = engine.save(tableName[0], tableName[1], tableName[2], new ByteArrayInputStream(bytes), isNdjson(event.getHeaders()), this.errors_limit);
     }
-    catch (JsonProcessingException je) {
-      throw new RuntimeException("Unable to parse body as list of JSON strings.");
+    catch (SnowpipeRestException e) {
+      return errorResponse(e);
     }
 
-    // Get channel based on path variables
-    String[] tableName = pathToTable(event.getPath());
-    SnowflakeStreamingIngestChannel channel = getIngestChannel(tableName[0], tableName[1], tableName[2]);
-    String key = String.format("%s.%s.%s", tableName[0], tableName[1], tableName[2]);
-    int insert_count = this.insert_count.get(key);
-    insert_count++;
-
-    // Issue the insert
-    String new_token = String.valueOf(insert_count);
-    InsertValidationResponse resp = channel.insertRows(rows, new_token);
-    this.insert_count.put(key, insert_count);
-
-    int maxRetries = 20;
-    int retryCount = 0;
-    do {
-      String offsetTokenFromSnowflake = channel.getLatestCommittedOffsetToken();
-      if (offsetTokenFromSnowflake != null
-          && offsetTokenFromSnowflake.equals(new_token)) {
-        System.out.println("SUCCESSFULLY inserted");
-        break;
+    // The commit is checked around when it is expected, then with growing intervals, on this
+    // thread; the response says whether it arrived within the timeout
+    if (this.wait_for_commit) {
+      boolean committed = false;
+      try {
+        committed = engine.awaitCommit(sp_resp, this.commit_timeout_ms);
       }
-      else {
-        try {
-          Thread.sleep(1000);
-        }
-        catch (Exception e) {
-          e.printStackTrace();
-        }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-      retryCount++;
-    } while (retryCount < maxRetries);
+      if (!committed)
+        System.out.println(String.format("Insert into %s.%s.%s not committed within %d ms", tableName[0], tableName[1], tableName[2], this.commit_timeout_ms));
+      sp_resp.setCommitted(committed);
+    }
+    return response(200, "application/json", sp_resp.toString());
+  }
+
+  private static APIGatewayProxyResponseEvent errorResponse(SnowpipeRestException e) {
+    APIGatewayProxyResponseEvent response = response(e.getStatus(), "text/plain", e.getReason());
+    if (e instanceof SnowpipeRestBackpressureException)
+      response.getHeaders().put("Retry-After", String.valueOf(((SnowpipeRestBackpressureException)e).getRetry_after()));
+    return response;
+  }
 
-    // Create response
+  private static APIGatewayProxyResponseEvent response(int status, String content_type, String body) {
     APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
     response.setIsBase64Encoded(false);
-    response.setStatusCode(200);
+    response.setStatusCode(status);
     HashMap<String, String> headers = new HashMap<String, String>();
-    headers.put("Content-Type", "text/html");
+    headers.put("Content-Type", content_type);
     response.setHeaders(headers);
-
-    try {
-      StringBuffer resp_body = new StringBuffer("{\n");
-      resp_body.append(String.format("  \"inserts_attempted\": %d,\n  \"inserts_succeeded\": %d,\n  \"insert_errors\": %d,\n", 
-        rows.size(), rows.size() - resp.getErrorRowCount(), resp.getErrorRowCount()));
-      resp_body.append("  \"error_rows\":\n    [");
-      String delim = " ";
-      for (InsertValidationResponse.InsertError insertError : resp.getInsertErrors()) {
-        int idx = (int)insertError.getRowIndex();
-        resp_body.append(String.format("\n    %s {\"row_index\": %d, \"input\": \"%s\", \"error\": \"%s\"}", 
-          delim, idx, objectMapper.writeValueAsString(rowStrings.get(idx)), insertError.getMessage()));
-        delim = ",";
-      }
-      resp_body.append("\n    ]");
-      resp_body.append("\n}");
-      response.setBody(resp_body.toString());
-      return response;
-    }
-    catch (JsonProcessingException je) {
-      throw new RuntimeException(je);
-    }
+    response.setBody(body);
+    return response;
   }
-}
\ No newline at end of file
+}
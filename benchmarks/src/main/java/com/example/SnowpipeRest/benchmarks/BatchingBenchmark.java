@@ -0,0 +1,68 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import com.example.SnowpipeRest.core.SnowpipeRestBatch;
+import com.google.common.collect.Lists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Splitting a request's rows into insertRows batches. The service used to collect every row into
+// one list and cut it with Lists.partition; it now fills each batch as rows are read.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingBenchmark {
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"144", "10000"})
+    public int batch_size;
+
+    private List<Map<String,Object>> data;
+
+    @Setup
+    public void setup() {
+        this.data = Rows.rows(this.rows);
+    }
+
+    @Benchmark
+    public void listsPartition(Blackhole bh) {
+        List<Map<String,Object>> all = new ArrayList<Map<String,Object>>();
+        for (Map<String,Object> row : this.data)
+            all.add(row);
+        for (List<Map<String,Object>> batch : Lists.partition(all, this.batch_size))
+            bh.consume(batch.size());
+    }
+
+    @Benchmark
+    public void batches(Blackhole bh) {
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(this.batch_size);
+        for (int i = 0; i < this.data.size(); i++) {
+            batch.add(this.data.get(i), i, 64);
+            if (batch.size() >= this.batch_size) {
+                bh.consume(batch);
+                batch = new SnowpipeRestBatch(this.batch_size);
+            }
+        }
+        if (!batch.isEmpty())
+            bh.consume(batch);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import com.example.SnowpipeRest.core.SnowpipeInsertResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// Writing an insert response with a given number of row errors
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertResponseBenchmark {
+    @Param({"0", "100", "10000"})
+    public int errors;
+
+    @Param({"-1", "100"})
+    public int errors_limit;
+
+    private final JsonFactory json = new JsonFactory();
+    private SnowpipeInsertResponse response;
+
+    @Setup
+    public void setup() {
+        this.response = new SnowpipeInsertResponse(0, 0, 0).setErrors_limit(this.errors_limit);
+        this.response.add_metrics(2 * this.errors + 1, this.errors + 1, this.errors);
+        // Errors past the limit are only counted
+        for (int i = 0; i < this.errors; i++)
+            this.response.addError(2 * i, String.format("{\"id\": %d, \"note\": \"quoted \\\"text\\\"\"}", i), "Extra column: NOTE");
+    }
+
+    @Benchmark
+    public void writeTo() throws IOException {
+        this.response.writeTo(this.json, OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import com.example.SnowpipeRest.core.SnowpipeRestBatch;
+import com.example.SnowpipeRest.core.SnowpipeRestException;
+import com.example.SnowpipeRest.core.SnowpipeRestMemoryBudget;
+import com.example.SnowpipeRest.core.SnowpipeRestReplayBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The replay buffer at a steady depth of uncommitted batches: adding a batch and truncating to
+// the committed offset (what the purger does), and walking the buffer as a channel reopen does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayBufferBenchmark {
+    @Param({"16", "256", "4096"})
+    public int depth;
+
+    @Param({"144"})
+    public int batch_rows;
+
+    private SnowpipeRestReplayBuffer buffer;
+    private SnowpipeRestBatch batch;
+    private long token;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        this.buffer = new SnowpipeRestReplayBuffer(new SnowpipeRestMemoryBudget("benchmark", 0, null, SnowpipeRestException.TOO_MANY_REQUESTS, 1));
+        this.batch = new SnowpipeRestBatch(this.batch_rows);
+        for (int i = 0; i < this.batch_rows; i++)
+            this.batch.add(Rows.row(i), i, 128);
+        for (this.token = 1; this.token <= this.depth; this.token++)
+            put(this.token);
+    }
+
+    private void put(long token) {
+        this.buffer.reserve(this.batch.getBytes(), 0);
+        this.buffer.put(token, this.batch);
+    }
+
+    @Benchmark
+    public int putAndTruncate() {
+        put(this.token);
+        return this.buffer.truncate(this.token++ - this.depth);
+    }
+
+    @Benchmark
+    public long replay(Blackhole bh) {
+        long rows = 0;
+        for (Map.Entry<Long, SnowpipeRestBatch> e : this.buffer.entries().entrySet()) {
+            for (Map<String,Object> row : e.getValue().getRows())
+                bh.consume(row);
+            rows += e.getValue().size();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import com.example.SnowpipeRest.core.SnowpipeRestRowReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Parsing a request body into rows, as saveToSnowflake does before batching
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowReaderBenchmark {
+    @Param({"100", "10000"})
+    public int rows;
+
+    @Param({"json", "ndjson"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean exact_decimals;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        this.body = "ndjson".equals(this.format) ? Rows.ndjson(this.rows) : Rows.jsonArray(this.rows);
+    }
+
+    @Benchmark
+    public long read(Blackhole bh) {
+        long bytes = 0;
+        SnowpipeRestRowReader reader = new SnowpipeRestRowReader(this.mapper, new ByteArrayInputStream(this.body),
+                "ndjson".equals(this.format), this.exact_decimals);
+        try {
+            for (Map<String,Object> row = reader.next(); null != row; row = reader.next()) {
+                bh.consume(row);
+                bytes += reader.getLastRowBytes();
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return bytes;
+    }
+}
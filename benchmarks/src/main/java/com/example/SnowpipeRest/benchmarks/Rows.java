@@ -0,0 +1,55 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Synthetic rows shaped like typical event data: a few numbers, strings and a timestamp
+final class Rows {
+    private Rows() {
+    }
+
+    static Map<String,Object> row(int i) {
+        Map<String,Object> row = new LinkedHashMap<String,Object>();
+        row.put("id", i);
+        row.put("user_id", 100000L + (i * 7919L) % 100000L);
+        row.put("event", (0 == i % 3) ? "click" : "view");
+        row.put("page", String.format("/products/%d", i % 1000));
+        row.put("amount", (i % 10000) / 100.0);
+        row.put("ts", String.format("2024-01-01T00:%02d:%02d.%03d", (i / 60) % 60, i % 60, i % 1000));
+        return row;
+    }
+
+    static List<Map<String,Object>> rows(int n) {
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(n);
+        for (int i = 0; i < n; i++)
+            rows.add(row(i));
+        return rows;
+    }
+
+    private static String json(int i) {
+        return String.format("{\"id\": %d, \"user_id\": %d, \"event\": \"%s\", \"page\": \"/products/%d\", \"amount\": %.2f, \"ts\": \"2024-01-01T00:%02d:%02d.%03d\"}",
+                i, 100000L + (i * 7919L) % 100000L, (0 == i % 3) ? "click" : "view", i % 1000, (i % 10000) / 100.0, (i / 60) % 60, i % 60, i % 1000);
+    }
+
+    // A JSON array of n rows
+    static byte[] jsonArray(int n) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                body.append(", ");
+            body.append(json(i));
+        }
+        return body.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Newline-delimited JSON with n rows
+    static byte[] ndjson(int n) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            body.append(json(i)).append('\n');
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
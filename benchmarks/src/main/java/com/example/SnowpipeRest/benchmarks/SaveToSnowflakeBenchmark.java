@@ -0,0 +1,81 @@
+package com.example.SnowpipeRest.benchmarks;
+
+import com.example.SnowpipeRest.SnowpipeRestApplication;
+import com.example.SnowpipeRest.SnowpipeRestRepository;
+import com.example.SnowpipeRest.core.LocalIngestBackend;
+import com.example.SnowpipeRest.core.SnowpipeInsertResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+// The whole insert path, from request body to insertRows, in a service running against the local
+// ingest backend, given to the service as a bean. Inserts commit after commit_lag_ms, so the
+// replay buffer fills and drains as it would against Snowflake.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-opens=java.base/java.nio=ALL-UNNAMED"})
+@Threads(4)
+public class SaveToSnowflakeBenchmark {
+    @Param({"10", "1000"})
+    public int rows;
+
+    @Param({"1", "4"})
+    public int channels_per_table;
+
+    @Param({"json", "ndjson"})
+    public String format;
+
+    @Param({"1000"})
+    public long commit_lag_ms;
+
+    private ConfigurableApplicationContext context;
+    private SnowpipeRestRepository repository;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.context = new SpringApplicationBuilder(SnowpipeRestApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "snowpiperest.channels_per_table=" + this.channels_per_table,
+                        "logging.level.com.example.SnowpipeRest=WARN")
+                .initializers(ctx -> ctx.getBeanFactory().registerSingleton("localIngestBackend",
+                        new LocalIngestBackend().setCommit_lag_ms(this.commit_lag_ms)))
+                .run();
+        this.repository = this.context.getBean(SnowpipeRestRepository.class);
+        this.body = "ndjson".equals(this.format) ? Rows.ndjson(this.rows) : Rows.jsonArray(this.rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public SnowpipeInsertResponse saveToSnowflake() {
+        return this.repository.saveToSnowflake("BENCHMARK", "PUBLIC", "EVENTS", new ByteArrayInputStream(this.body),
+                "ndjson".equals(this.format), -1);
+    }
+}
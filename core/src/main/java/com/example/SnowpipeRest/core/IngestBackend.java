@@ -0,0 +1,29 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+
+import java.util.Properties;
+
+// Where the front ends send rows: something that makes Snowpipe Streaming clients. The Spring
+// Boot service and the Lambda both insert through the client this returns, so a backend that
+// is not Snowflake exercises the same channel, offset token and replay code.
+public interface IngestBackend {
+    String SNOWFLAKE = "snowflake";
+    String LOCAL = "local";
+
+    SnowflakeStreamingIngestClient createClient(String name, Properties props);
+
+    // Whether createClient needs the Snowflake url, user, role and private_key properties
+    default boolean needsCredentials() {
+        return true;
+    }
+
+    // The backend named by type, "snowflake" (the default) or "local"; local_settings configures a local backend
+    static IngestBackend of(String type, String local_settings) {
+        if (null == type || type.isEmpty() || SNOWFLAKE.equalsIgnoreCase(type))
+            return new SnowflakeIngestBackend();
+        if (LOCAL.equalsIgnoreCase(type))
+            return LocalIngestBackend.parse(local_settings);
+        throw new IllegalArgumentException(String.format("Unknown ingest backend: %s", type));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.SnowpipeRest.core;
+
+// What the engine reports about each stage of a table's insert path. The Spring Boot service
+// records these as Micrometer meters; the Lambda does not record them.
+public interface IngestMetrics {
+    // Time reading a request body into rows, per request
+    void parsed(long nanos);
+
+    // Rows and bytes of a batch handed to a channel
+    void batch(int rows, long bytes);
+
+    // Time in the SDK's insertRows
+    void inserted(long nanos);
+
+    // Rows accepted by a channel, and rows rejected by schema conversion or by the SDK
+    void rows(long inserted, long rejected);
+
+    // Time reopening an invalidated channel
+    void reopened(long nanos);
+
+    // Time replaying a channel's buffer, and the batches replayed
+    void replayed(long nanos, int batches);
+
+    // Time from a channel's invalidation until it was reopened and caught up, and the attempts it took
+    void recovered(long nanos, int attempts);
+
+    // Time spent on a recovery that ran out of attempts
+    void recoveryFailed(long nanos, int attempts);
+
+    IngestMetrics NONE = new IngestMetrics() {
+        public void parsed(long nanos) {}
+        public void batch(int rows, long bytes) {}
+        public void inserted(long nanos) {}
+        public void rows(long inserted, long rejected) {}
+        public void reopened(long nanos) {}
+        public void replayed(long nanos, int batches) {}
+        public void recovered(long nanos, int attempts) {}
+        public void recoveryFailed(long nanos, int attempts) {}
+    };
+
+    // Makes each table's metrics when the table is first opened
+    interface Factory {
+        IngestMetrics forTable(SnowpipeRestTableState table);
+
+        // Called once the table's channels are open, e.g. to register gauges that read them
+        default void opened(SnowpipeRestTableState table) {
+        }
+    }
+}
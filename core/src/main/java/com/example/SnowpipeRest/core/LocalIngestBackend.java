@@ -0,0 +1,279 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.OpenChannelRequest;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// An in-process stand-in for Snowflake, for load and chaos tests without an account.
+// It keeps what Snowflake keeps: each channel's committed offset token, which survives clients
+// and reopens, while rows not yet committed are lost when a channel is reopened or invalidated.
+// Inserted rows commit after a simulated commit lag, in order. Inserts take a simulated latency,
+// can invalidate their channel (the insert fails with SFException, as it does in the SDK), and
+// can reject single rows with a validation error. Latencies are log-normal, given by their
+// median and 99th percentile; a seed makes a run repeatable.
+public class LocalIngestBackend implements IngestBackend {
+    private long commit_lag_ms = 1000;
+    private long commit_lag_p99_ms = 0;
+    private long insert_latency_ms = 0;
+    private long insert_latency_p99_ms = 0;
+    private double invalidate_rate = 0;
+    private double row_error_rate = 0;
+    private long seed = 0;
+    private Random random;
+
+    // The current channel for each fully qualified channel name
+    private final Map<String, LocalIngestChannel> channels = new ConcurrentHashMap<String, LocalIngestChannel>();
+    private final List<LocalIngestClient> clients = new ArrayList<LocalIngestClient>();
+    private ScheduledExecutorService committer;
+    // Locks rather than synchronized, so virtual threads are not pinned to their carrier while they
+    // wait: lock guards the clients and committer, random_lock the seeded random
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock random_lock = new ReentrantLock();
+
+    // 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.3263;
+
+    public LocalIngestBackend() {
+    }
+
+    // Settings as comma-separated key=value pairs, e.g. "commit_lag_ms=1000,invalidate_rate=0.001"
+    public static LocalIngestBackend parse(String settings) {
+        LocalIngestBackend backend = new LocalIngestBackend();
+        if (null == settings || settings.trim().isEmpty())
+            return backend;
+        for (String setting : settings.split(",")) {
+            String[] kv = setting.split("=", 2);
+            if (2 != kv.length)
+                throw new IllegalArgumentException(String.format("Local backend settings must be key=value: %s", setting));
+            String key = kv[0].trim();
+            String value = kv[1].trim();
+            try {
+                switch (key) {
+                    case "commit_lag_ms": backend.setCommit_lag_ms(Long.parseLong(value)); break;
+                    case "commit_lag_p99_ms": backend.setCommit_lag_p99_ms(Long.parseLong(value)); break;
+                    case "insert_latency_ms": backend.setInsert_latency_ms(Long.parseLong(value)); break;
+                    case "insert_latency_p99_ms": backend.setInsert_latency_p99_ms(Long.parseLong(value)); break;
+                    case "invalidate_rate": backend.setInvalidate_rate(Double.parseDouble(value)); break;
+                    case "row_error_rate": backend.setRow_error_rate(Double.parseDouble(value)); break;
+                    case "seed": backend.setSeed(Long.parseLong(value)); break;
+                    default: throw new IllegalArgumentException(String.format("Unknown local backend setting: %s", key));
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid value for local backend setting %s: %s", key, value));
+            }
+        }
+        return backend;
+    }
+
+    // Median time from insert to commit
+    public LocalIngestBackend setCommit_lag_ms(long commit_lag_ms) {
+        this.commit_lag_ms = commit_lag_ms;
+        return this;
+    }
+
+    public LocalIngestBackend setCommit_lag_p99_ms(long commit_lag_p99_ms) {
+        this.commit_lag_p99_ms = commit_lag_p99_ms;
+        return this;
+    }
+
+    // Median time an insertRows call takes
+    public LocalIngestBackend setInsert_latency_ms(long insert_latency_ms) {
+        this.insert_latency_ms = insert_latency_ms;
+        return this;
+    }
+
+    public LocalIngestBackend setInsert_latency_p99_ms(long insert_latency_p99_ms) {
+        this.insert_latency_p99_ms = insert_latency_p99_ms;
+        return this;
+    }
+
+    // Chance that an insertRows call invalidates its channel
+    public LocalIngestBackend setInvalidate_rate(double invalidate_rate) {
+        this.invalidate_rate = invalidate_rate;
+        return this;
+    }
+
+    // Chance that a row fails validation
+    public LocalIngestBackend setRow_error_rate(double row_error_rate) {
+        this.row_error_rate = row_error_rate;
+        return this;
+    }
+
+    // Seeds the simulation, so a single-threaded run makes the same choices each time; 0 is unseeded
+    public LocalIngestBackend setSeed(long seed) {
+        this.seed = seed;
+        this.random = (0 == seed) ? null : new Random(seed);
+        return this;
+    }
+
+    @Override
+    public boolean needsCredentials() {
+        return false;
+    }
+
+    @Override
+    public SnowflakeStreamingIngestClient createClient(String name, Properties props) {
+        this.lock.lock();
+        try {
+            if (null == this.committer) {
+                this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "local-ingest-committer");
+                    t.setDaemon(true);
+                    return t;
+                });
+                long tick = Math.max(1, Math.min(50, this.commit_lag_ms / 10));
+                this.committer.scheduleWithFixedDelay(this::commit, tick, tick, TimeUnit.MILLISECONDS);
+            }
+            LocalIngestClient client = new LocalIngestClient(name, this);
+            this.clients.add(client);
+            return client;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Opening a channel replaces the current one, which is invalidated and loses what it had not committed
+    LocalIngestChannel open(OpenChannelRequest request) {
+        String key = String.format("%s.%s.%s.%s", request.getDBName(), request.getSchemaName(), request.getTableName(), request.getChannelName());
+        return this.channels.compute(key, (k, old) -> {
+            String committed = null;
+            long committed_rows = 0;
+            if (null != old) {
+                old.invalidate();
+                committed = old.getCommittedToken();
+                committed_rows = old.getCommittedRows();
+            }
+            return new LocalIngestChannel(this, request.getChannelName(), request.getDBName(), request.getSchemaName(),
+                    request.getTableName(), committed, committed_rows);
+        });
+    }
+
+    void drop(String fully_qualified_name) {
+        LocalIngestChannel channel = this.channels.remove(fully_qualified_name);
+        if (null != channel)
+            channel.invalidate();
+    }
+
+    // Commits every insert whose commit lag has passed
+    public void commit() {
+        long now = System.nanoTime();
+        for (LocalIngestChannel channel : this.channels.values())
+            channel.commit(now);
+    }
+
+    // Commits everything inserted so far
+    public void commitAll() {
+        for (LocalIngestChannel channel : this.channels.values())
+            channel.commit(Long.MAX_VALUE);
+    }
+
+    // Invalidates a channel, as Snowflake does when a channel is reopened elsewhere or hits an internal error
+    public boolean invalidate(String fully_qualified_name) {
+        LocalIngestChannel channel = this.channels.get(fully_qualified_name);
+        if (null == channel)
+            return false;
+        channel.invalidate();
+        return true;
+    }
+
+    public void invalidateAll() {
+        for (LocalIngestChannel channel : this.channels.values())
+            channel.invalidate();
+    }
+
+    public LocalIngestChannel getChannel(String fully_qualified_name) {
+        return this.channels.get(fully_qualified_name);
+    }
+
+    public long getCommittedRows() {
+        long n = 0;
+        for (LocalIngestChannel channel : this.channels.values())
+            n += channel.getCommittedRows();
+        return n;
+    }
+
+    public long getInsertedRows() {
+        long n = 0;
+        for (LocalIngestChannel channel : this.channels.values())
+            n += channel.getInsertedRows();
+        return n;
+    }
+
+    // Stops committing; called when the last client closes
+    void closed(LocalIngestClient client) {
+        this.lock.lock();
+        try {
+            this.clients.remove(client);
+            if (this.clients.isEmpty() && null != this.committer) {
+                this.committer.shutdownNow();
+                this.committer = null;
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    long sampleCommitLagNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(sample(this.commit_lag_ms, this.commit_lag_p99_ms));
+    }
+
+    long sampleInsertLatencyMs() {
+        return sample(this.insert_latency_ms, this.insert_latency_p99_ms);
+    }
+
+    boolean invalidates() {
+        return this.invalidate_rate > 0 && nextDouble() < this.invalidate_rate;
+    }
+
+    boolean rowFails() {
+        return this.row_error_rate > 0 && nextDouble() < this.row_error_rate;
+    }
+
+    // Log-normal with the given median and 99th percentile, or always the median if p99 is not above it
+    private long sample(long median, long p99) {
+        if (median <= 0)
+            return 0;
+        if (p99 <= median)
+            return median;
+        double sigma = Math.log((double)p99 / median) / Z_99;
+        return Math.round(median * Math.exp(sigma * nextGaussian()));
+    }
+
+    private double nextDouble() {
+        if (null == this.random)
+            return ThreadLocalRandom.current().nextDouble();
+        this.random_lock.lock();
+        try {
+            return this.random.nextDouble();
+        }
+        finally {
+            this.random_lock.unlock();
+        }
+    }
+
+    private double nextGaussian() {
+        if (null == this.random)
+            return ThreadLocalRandom.current().nextGaussian();
+        this.random_lock.lock();
+        try {
+            return this.random.nextGaussian();
+        }
+        finally {
+            this.random_lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.ColumnProperties;
+import net.snowflake.ingest.streaming.InsertValidationResponse;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+import net.snowflake.ingest.utils.ErrorCode;
+import net.snowflake.ingest.utils.SFException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A channel of a LocalIngestBackend. Each insert is queued with the time it will commit; the
+// backend's committer moves the committed offset token forward as those times pass.
+public class LocalIngestChannel implements SnowflakeStreamingIngestChannel {
+    private final LocalIngestBackend backend;
+    private final String name;
+    private final String database;
+    private final String schema;
+    private final String table;
+    // Guards the uncommitted inserts
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Insert> uncommitted = new ArrayDeque<Insert>();
+    private final AtomicLong inserted_rows = new AtomicLong(0);
+    private volatile long committed_rows;
+    private volatile String committed_token;
+    private long last_due = 0;
+    private volatile boolean valid = true;
+    private volatile boolean closed = false;
+
+    private static class Insert {
+        final String token;
+        final long rows;
+        final long due;
+
+        Insert(String token, long rows, long due) {
+            this.token = token;
+            this.rows = rows;
+            this.due = due;
+        }
+    }
+
+    LocalIngestChannel(LocalIngestBackend backend, String name, String database, String schema, String table,
+                       String committed_token, long committed_rows) {
+        this.backend = backend;
+        this.name = name;
+        this.database = database;
+        this.schema = schema;
+        this.table = table;
+        this.committed_token = committed_token;
+        this.committed_rows = committed_rows;
+    }
+
+    // Commits the inserts due by now, in order
+    void commit(long now) {
+        this.lock.lock();
+        try {
+            for (Insert insert = this.uncommitted.peekFirst(); null != insert && insert.due - now <= 0; insert = this.uncommitted.peekFirst()) {
+                this.uncommitted.pollFirst();
+                this.committed_token = insert.token;
+                this.committed_rows += insert.rows;
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Fails the channel's next call and drops what it had not committed
+    public void invalidate() {
+        this.lock.lock();
+        try {
+            this.valid = false;
+            this.uncommitted.clear();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getCommittedRows() {
+        return this.committed_rows;
+    }
+
+    // Offset tokens inserted and not yet committed, in the order they were inserted
+    public List<String> getUncommittedTokens() {
+        this.lock.lock();
+        try {
+            List<String> tokens = new ArrayList<String>(this.uncommitted.size());
+            for (Insert insert : this.uncommitted)
+                tokens.add(insert.token);
+            return tokens;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Rows accepted by this channel, committed or not
+    public long getInsertedRows() {
+        return this.inserted_rows.get();
+    }
+
+    @Override
+    public String getFullyQualifiedName() {
+        return String.format("%s.%s.%s.%s", this.database, this.schema, this.table, this.name);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getDBName() {
+        return this.database;
+    }
+
+    @Override
+    public String getSchemaName() {
+        return this.schema;
+    }
+
+    @Override
+    public String getTableName() {
+        return this.table;
+    }
+
+    @Override
+    public String getFullyQualifiedTableName() {
+        return String.format("%s.%s.%s", this.database, this.schema, this.table);
+    }
+
+    @Override
+    public boolean isValid() {
+        return this.valid;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        return close(false);
+    }
+
+    // Closing waits for what was inserted to commit, as the SDK's close flushes the channel
+    @Override
+    public CompletableFuture<Void> close(boolean drop) {
+        this.closed = true;
+        if (this.valid)
+            commit(Long.MAX_VALUE);
+        if (drop)
+            this.backend.drop(getFullyQualifiedName());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public InsertValidationResponse insertRow(Map<String, Object> row, String offsetToken) {
+        return insertRows(Collections.singletonList(row), offsetToken);
+    }
+
+    @Override
+    public InsertValidationResponse insertRows(Iterable<Map<String, Object>> rows, String startOffsetToken, String endOffsetToken) {
+        return insertRows(rows, endOffsetToken);
+    }
+
+    @Override
+    public InsertValidationResponse insertRows(Iterable<Map<String, Object>> rows, String offsetToken) {
+        check();
+        long latency = this.backend.sampleInsertLatencyMs();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SFException(e, ErrorCode.INTERNAL_ERROR, "Interrupted inserting rows");
+            }
+        }
+        if (this.backend.invalidates()) {
+            invalidate();
+            check();
+        }
+        InsertValidationResponse response = new InsertValidationResponse();
+        long index = 0;
+        long accepted = 0;
+        for (Map<String, Object> row : rows) {
+            if (this.backend.rowFails()) {
+                InsertValidationResponse.InsertError error = new InsertValidationResponse.InsertError(row, index);
+                error.setException(new SFException(ErrorCode.INVALID_FORMAT_ROW, "Simulated validation error"));
+                response.addError(error);
+            }
+            else {
+                accepted++;
+            }
+            index++;
+        }
+        this.lock.lock();
+        try {
+            // Invalidated while inserting: the rows are lost with the rest of the uncommitted data
+            check();
+            long due = Math.max(this.last_due, System.nanoTime() + this.backend.sampleCommitLagNanos());
+            this.last_due = due;
+            this.uncommitted.addLast(new Insert(offsetToken, accepted, due));
+        }
+        finally {
+            this.lock.unlock();
+        }
+        this.inserted_rows.addAndGet(accepted);
+        return response;
+    }
+
+    private void check() {
+        checkValid();
+        if (this.closed)
+            throw new SFException(ErrorCode.CLOSED_CHANNEL, getFullyQualifiedName());
+    }
+
+    private void checkValid() {
+        if (!this.valid)
+            throw new SFException(ErrorCode.INVALID_CHANNEL, getFullyQualifiedName(), "Invalidated by the local backend");
+    }
+
+    // Like the SDK, an invalidated channel fails the lookup, but a closed one still answers it
+    @Override
+    public String getLatestCommittedOffsetToken() {
+        checkValid();
+        return this.committed_token;
+    }
+
+    // The committed offset token, even once the channel is invalidated, for the channel that replaces it
+    String getCommittedToken() {
+        return this.committed_token;
+    }
+
+    // The local backend knows no table schemas, so rows are inserted as they are
+    @Override
+    public Map<String, ColumnProperties> getTableSchema() {
+        return Collections.emptyMap();
+    }
+}
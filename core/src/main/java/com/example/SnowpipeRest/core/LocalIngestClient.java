@@ -0,0 +1,64 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.DropChannelRequest;
+import net.snowflake.ingest.streaming.OpenChannelRequest;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+import net.snowflake.ingest.utils.ErrorCode;
+import net.snowflake.ingest.utils.SFException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A client of a LocalIngestBackend; the channels and their offsets live in the backend
+public class LocalIngestClient implements SnowflakeStreamingIngestClient {
+    private final String name;
+    private final LocalIngestBackend backend;
+    private volatile boolean closed = false;
+
+    LocalIngestClient(String name, LocalIngestBackend backend) {
+        this.name = name;
+        this.backend = backend;
+    }
+
+    @Override
+    public SnowflakeStreamingIngestChannel openChannel(OpenChannelRequest request) {
+        if (this.closed)
+            throw new SFException(ErrorCode.CLOSED_CLIENT);
+        return this.backend.open(request);
+    }
+
+    @Override
+    public void dropChannel(DropChannelRequest request) {
+        this.backend.drop(String.format("%s.%s", request.getFullyQualifiedTableName(), request.getChannelName()));
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public void setRefreshToken(String refreshToken) {
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public Map<String, String> getLatestCommittedOffsetTokens(List<SnowflakeStreamingIngestChannel> channels) {
+        Map<String, String> tokens = new HashMap<String, String>();
+        for (SnowflakeStreamingIngestChannel channel : channels)
+            tokens.put(channel.getFullyQualifiedName(), channel.getLatestCommittedOffsetToken());
+        return tokens;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.backend.closed(this);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClientFactory;
+
+import java.util.Properties;
+
+// Snowflake itself, through the Snowpipe Streaming SDK
+public class SnowflakeIngestBackend implements IngestBackend {
+    @Override
+    public SnowflakeStreamingIngestClient createClient(String name, Properties props) {
+        return SnowflakeStreamingIngestClientFactory.builder(name).setProperties(props).build();
+    }
+}
@@ -1,4 +1,8 @@
-package com.example.SnowpipeRest;
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
 
 public class SnowpipeInsertError {
     public int row_index;
@@ -23,7 +27,15 @@ public class SnowpipeInsertError {
         return error;
     }
 
+    public void writeTo(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("row_index", Integer.toString(row_index));
+        gen.writeStringField("input", input);
+        gen.writeStringField("error", error);
+        gen.writeEndObject();
+    }
+
     public String toString() {
-        return String.format("{\"row_index\": \"%s\", \"input\": \"%s\", \"error\": \"%s\"}", row_index, input, error);
+        return String.format("row %d: %s (%s)", row_index, error, input);
     }
 }
@@ -0,0 +1,154 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SnowpipeInsertResponse {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    int num_attempted;
+    int num_succeeded;
+    int num_errors;
+    List<SnowpipeInsertError> errors;
+    // At most this many error rows are kept for the response (negative for no limit); the rest are only counted
+    int errors_limit = -1;
+    int errors_omitted = 0;
+    // Highest offset token this request used on each channel, for commit acknowledgement
+    final Map<SnowpipeRestChannelState, Long> last_tokens = new ConcurrentHashMap<SnowpipeRestChannelState, Long>();
+    // System.nanoTime of the request's last insert, from which commit latency is measured
+    volatile long inserted_at;
+    // Whether the rows were committed, for callers that wait for it; not written when null
+    Boolean committed;
+
+    public SnowpipeInsertResponse(int num_attempted, int num_succeeded, int num_errors) {
+        this(num_attempted, num_succeeded, num_errors, new ArrayList<SnowpipeInsertError>());
+    }
+
+    public SnowpipeInsertResponse(int num_attempted, int num_succeeded, int num_errors, List<SnowpipeInsertError> errors) {
+        this.num_attempted = num_attempted;
+        this.num_succeeded = num_succeeded;
+        this.num_errors = num_errors;
+        this.errors = errors;
+    }
+
+    public int getNum_attempted() {
+        return num_attempted;
+    }
+
+    public int getNum_succeeded() {
+        return num_succeeded;
+    }
+
+    public int getNum_errors() {
+        return num_errors;
+    }
+
+    public void setNum_attempted(int n) {
+        this.num_attempted = n;
+    }
+
+    public void setNum_succeeded(int n) {
+        this.num_succeeded = n;
+    }
+
+    public void setNum_errors(int n) {
+        this.num_errors = n;
+    }
+
+    public void add_metrics(int n_attempted, int n_succeeded, int n_errors) {
+        this.num_attempted += n_attempted;
+        this.num_succeeded += n_succeeded;
+        this.num_errors += n_errors;
+    }
+
+    public SnowpipeInsertResponse setErrors_limit(int errors_limit) {
+        this.errors_limit = errors_limit;
+        return this;
+    }
+
+    // Whether another error row would be kept, so callers can skip serializing the row when not
+    public boolean keepsErrors() {
+        return this.errors_limit < 0 || this.errors.size() < this.errors_limit;
+    }
+
+    public void omitError() {
+        this.errors_omitted++;
+    }
+
+    public int getErrors_omitted() {
+        return errors_omitted;
+    }
+
+    public List<SnowpipeInsertError> getErrors() {
+        return errors;
+    }
+
+    public SnowpipeInsertResponse addError(int row_index, String input, String error) {
+        return addError(new SnowpipeInsertError(row_index, input, error));
+    }
+
+    public SnowpipeInsertResponse addError(SnowpipeInsertError e) {
+        if (keepsErrors())
+            errors.add(e);
+        else
+            omitError();
+        return this;
+    }
+
+    void recordToken(SnowpipeRestChannelState channel, long token) {
+        last_tokens.merge(channel, token, Math::max);
+        inserted_at = System.nanoTime();
+    }
+
+    public Boolean getCommitted() {
+        return committed;
+    }
+
+    public SnowpipeInsertResponse setCommitted(Boolean committed) {
+        this.committed = committed;
+        return this;
+    }
+
+    // Writes the response as JSON; row_index stays a string as it always has been
+    public void writeTo(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("inserts_attempted", num_attempted);
+        gen.writeNumberField("inserts_succeeded", num_succeeded);
+        gen.writeNumberField("insert_errors", num_errors);
+        if (null != committed)
+            gen.writeBooleanField("committed", committed);
+        gen.writeArrayFieldStart("error_rows");
+        for (SnowpipeInsertError e : errors)
+            e.writeTo(gen);
+        gen.writeEndArray();
+        if (errors_omitted > 0)
+            gen.writeNumberField("error_rows_omitted", errors_omitted);
+        gen.writeEndObject();
+    }
+
+    public void writeTo(JsonFactory factory, OutputStream out) throws IOException {
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            writeTo(gen);
+        }
+    }
+
+    public String toString() {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = JSON.createGenerator(out)) {
+            writeTo(gen);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+}
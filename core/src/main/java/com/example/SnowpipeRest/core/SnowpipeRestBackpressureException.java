@@ -0,0 +1,21 @@
+package com.example.SnowpipeRest.core;
+
+public class SnowpipeRestBackpressureException extends SnowpipeRestException {
+    private final long retry_after;
+
+    public SnowpipeRestBackpressureException(int status, String message, long retry_after) {
+        super(status, message);
+        this.retry_after = retry_after;
+    }
+
+    // Seconds the client should wait before retrying
+    public long getRetry_after() {
+        return retry_after;
+    }
+
+    @Override
+    public SnowpipeRestException afterInserting(int inserted) {
+        return new SnowpipeRestBackpressureException(getStatus(),
+                String.format("%s %d rows before it was reached were inserted.", getReason(), inserted), this.retry_after);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import net.snowflake.ingest.streaming.InsertValidationResponse;
+
+// Rows headed for one insertRows call, with the position of each row in its request.
+// A batch coalesced from several requests also records which request each row came from.
+// A batch kept only in the write-ahead log has no rows in memory, just its WAL record.
+public class SnowpipeRestBatch {
+    final List<Map<String,Object>> rows;
+    int[] row_index;
+    SnowpipeInsertResponse[] row_response;
+    long bytes = 0;
+    SnowpipeRestWal.Record wal_record;
+    // The budget this batch's bytes were admitted against, until they are freed
+    SnowpipeRestMemoryBudget admitted;
+    // Set while the batch waits in the replay buffer for a recovering channel; completed by its first insert
+    CompletableFuture<InsertValidationResponse> queued;
+
+    public SnowpipeRestBatch(int capacity) {
+        this.rows = new ArrayList<Map<String,Object>>(capacity);
+        this.row_index = new int[capacity];
+    }
+
+    public void add(Map<String,Object> row, int index, long row_bytes) {
+        add(row, index, row_bytes, null);
+    }
+
+    public void add(Map<String,Object> row, int index, long row_bytes, SnowpipeInsertResponse response) {
+        if (this.rows.size() == this.row_index.length)
+            this.row_index = Arrays.copyOf(this.row_index, Math.max(16, this.row_index.length * 2));
+        if (null != response) {
+            if (null == this.row_response)
+                this.row_response = new SnowpipeInsertResponse[this.row_index.length];
+            else if (this.row_response.length < this.row_index.length)
+                this.row_response = Arrays.copyOf(this.row_response, this.row_index.length);
+            this.row_response[this.rows.size()] = response;
+        }
+        this.row_index[this.rows.size()] = index;
+        this.rows.add(row);
+        this.bytes += row_bytes;
+    }
+
+    // A stand-in for this batch that leaves the rows to the write-ahead log
+    static SnowpipeRestBatch spilled(SnowpipeRestWal.Record record, long bytes) {
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(0);
+        batch.bytes = bytes;
+        batch.wal_record = record;
+        return batch;
+    }
+
+    void releaseAdmission() {
+        if (null != this.admitted) {
+            this.admitted.release(this.bytes);
+            this.admitted = null;
+        }
+    }
+
+    public int size() {
+        return (null != this.wal_record) ? this.wal_record.rows : this.rows.size();
+    }
+
+    public boolean isEmpty() {
+        return 0 == size();
+    }
+
+    public List<Map<String,Object>> getRows() {
+        return this.rows;
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    // Position in the request of the row at the given index in this batch
+    public int requestIndex(int idx) {
+        return this.row_index[idx];
+    }
+
+    // Response of the request the row at the given index came from, or dflt if the batch is not coalesced
+    public SnowpipeInsertResponse response(int idx, SnowpipeInsertResponse dflt) {
+        return (null != this.row_response) ? this.row_response[idx] : dflt;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Concurrent map of table key to table state. Creating the state is cheap and atomic;
+// opening the channels happens under the table's own lock so tables never wait on each other.
+public class SnowpipeRestChannelRegistry {
+    private final ConcurrentMap<String, SnowpipeRestTableState> tables = new ConcurrentHashMap<String, SnowpipeRestTableState>();
+    private final int channels_per_table;
+    private final long max_buffer_bytes;
+    private final long table_budget_bytes;
+    private final SnowpipeRestMemoryBudget global_budget;
+    private final long retry_after;
+
+    public SnowpipeRestChannelRegistry(int channels_per_table, long max_buffer_bytes, long table_budget_bytes,
+                                       SnowpipeRestMemoryBudget global_budget, long retry_after) {
+        this.channels_per_table = channels_per_table;
+        this.max_buffer_bytes = max_buffer_bytes;
+        this.table_budget_bytes = table_budget_bytes;
+        this.global_budget = global_budget;
+        this.retry_after = retry_after;
+    }
+
+    public static String makeKey(String database, String schema, String table) {
+        return String.format("%s.%s.%s", database.toUpperCase(), schema.toUpperCase(), table.toUpperCase());
+    }
+
+    public SnowpipeRestTableState getOrCreate(String database, String schema, String table) {
+        String key = makeKey(database, schema, table);
+        return this.tables.computeIfAbsent(key, k -> new SnowpipeRestTableState(k, database, schema, table, this.channels_per_table, this.max_buffer_bytes,
+                new SnowpipeRestMemoryBudget(k, this.table_budget_bytes, this.global_budget, SnowpipeRestException.TOO_MANY_REQUESTS, this.retry_after),
+                this.retry_after));
+    }
+
+    public SnowpipeRestTableState get(String key) {
+        return this.tables.get(key);
+    }
+
+    // Drops a table whose channels could not be opened, so unknown tables are not kept around
+    public void remove(SnowpipeRestTableState state) {
+        this.tables.remove(state.key, state);
+    }
+
+    public Collection<SnowpipeRestTableState> all() {
+        return this.tables.values();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.Map;
+import java.util.Objects;
+
+// Chooses which of a table's channels receives each row of a batch
+public class SnowpipeRestChannelRouter {
+    public static final String ROUND_ROBIN = "round_robin";
+    public static final String LEAST_BUFFERED = "least_buffered";
+    public static final String PARTITION_KEY = "partition_key";
+
+    private final String routing;
+    private final String partition_key;
+
+    public SnowpipeRestChannelRouter(String routing, String partition_key) {
+        if (!ROUND_ROBIN.equals(routing) && !LEAST_BUFFERED.equals(routing) && !PARTITION_KEY.equals(routing))
+            throw new IllegalArgumentException(String.format("Unknown channel routing: %s", routing));
+        if (PARTITION_KEY.equals(routing) && (null == partition_key || partition_key.isEmpty()))
+            throw new IllegalArgumentException("Partition key routing needs snowpiperest.partition_key");
+        this.routing = routing;
+        this.partition_key = partition_key;
+    }
+
+    public String getRouting() {
+        return this.routing;
+    }
+
+    // Splits the batch by channel: element i is the batch for channel i, or null if it gets no rows
+    public SnowpipeRestBatch[] route(SnowpipeRestTableState table, SnowpipeRestBatch batch) {
+        int n = table.channels.length;
+        SnowpipeRestBatch[] routed = new SnowpipeRestBatch[n];
+        if (1 == n) {
+            routed[0] = batch;
+        }
+        else if (ROUND_ROBIN.equals(this.routing)) {
+            routed[Math.floorMod(table.next_channel.getAndIncrement(), n)] = batch;
+        }
+        else if (LEAST_BUFFERED.equals(this.routing)) {
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (table.channels[i].buffer.getBytes() < table.channels[best].buffer.getBytes())
+                    best = i;
+            }
+            routed[best] = batch;
+        }
+        else {
+            long row_bytes = batch.isEmpty() ? 0 : batch.getBytes() / batch.size();
+            for (int i = 0; i < batch.size(); i++) {
+                Map<String,Object> row = batch.rows.get(i);
+                int c = Math.floorMod(Objects.hashCode(partitionValue(row)), n);
+                if (null == routed[c])
+                    routed[c] = new SnowpipeRestBatch(batch.size() / n + 1);
+                routed[c].add(row, batch.requestIndex(i), row_bytes, batch.response(i, null));
+            }
+            // Give the rounding remainder to one batch, so the parts add up to the whole
+            long assigned = 0;
+            int last = 0;
+            for (int c = 0; c < n; c++) {
+                if (null != routed[c]) {
+                    assigned += routed[c].bytes;
+                    last = c;
+                }
+            }
+            if (null != routed[last])
+                routed[last].bytes += batch.getBytes() - assigned;
+        }
+        return routed;
+    }
+
+    private Object partitionValue(Map<String,Object> row) {
+        if (row.containsKey(this.partition_key))
+            return row.get(this.partition_key);
+        // Column names are case-insensitive unless quoted, so accept the key in any case, quoted or not
+        for (Map.Entry<String,Object> e : row.entrySet()) {
+            String key = e.getKey();
+            if (key.length() > 1 && key.startsWith("\"") && key.endsWith("\""))
+                key = key.substring(1, key.length() - 1);
+            if (this.partition_key.equalsIgnoreCase(key))
+                return e.getValue();
+        }
+        return null;
+    }
+}
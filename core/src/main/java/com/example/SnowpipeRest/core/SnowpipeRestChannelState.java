@@ -0,0 +1,75 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Channel, offset tokens, replay buffer, commit watcher and tracker for one of a table's channels.
+// Inserts to the channel take the lock, so tokens reach the channel in the order they were handed out.
+public class SnowpipeRestChannelState {
+    final SnowpipeRestTableState table;
+    final int index;
+    final String key;
+    final ReentrantLock lock = new ReentrantLock();
+    final AtomicLong offset = new AtomicLong(0);
+    final SnowpipeRestReplayBuffer buffer;
+    final SnowpipeRestOffsetWatcher watcher = new SnowpipeRestOffsetWatcher();
+    final SnowpipeRestCommitTracker tracker = new SnowpipeRestCommitTracker(this);
+    volatile SnowflakeStreamingIngestChannel channel;
+    volatile SnowpipeRestWal wal;
+    // Set, under the lock, while the channel is being reopened and replayed; completed when it is caught up
+    volatile CompletableFuture<Void> recovering;
+
+    SnowpipeRestChannelState(SnowpipeRestTableState table, int index, long max_buffer_bytes, long retry_after) {
+        this.table = table;
+        this.index = index;
+        this.key = String.format("%s#%d", table.key, index);
+        this.buffer = new SnowpipeRestReplayBuffer(new SnowpipeRestMemoryBudget(this.key + " replay buffer", max_buffer_bytes, null, SnowpipeRestException.TOO_MANY_REQUESTS, retry_after));
+    }
+
+    long nextToken() {
+        return this.offset.incrementAndGet();
+    }
+
+    // Never hand out a token at or below one Snowflake has already committed for this channel
+    void advanceTokensPast(String committed_token) {
+        if (null == committed_token)
+            return;
+        try {
+            long committed = Long.parseLong(committed_token);
+            this.offset.accumulateAndGet(committed, Math::max);
+        }
+        catch (NumberFormatException e) {
+            SnowpipeRestEngine.logger.info(String.format("Ignoring non-numeric offset token for %s: %s", this.key, committed_token));
+        }
+    }
+
+    // Rows of a buffered batch, read back from the write-ahead log if they are not in memory
+    List<Map<String,Object>> rows(SnowpipeRestBatch batch) {
+        return (null != batch.wal_record) ? this.wal.read(batch.wal_record) : batch.rows;
+    }
+
+    // Frees the batches Snowflake has committed and completes the commit waiters
+    void committed(String committed_token) {
+        if (null == committed_token)
+            return;
+        long committed;
+        try {
+            committed = Long.parseLong(committed_token);
+        }
+        catch (NumberFormatException e) {
+            SnowpipeRestEngine.logger.info(String.format("Ignoring non-numeric offset token for %s: %s", this.key, committed_token));
+            return;
+        }
+        this.watcher.committed(committed);
+        int purged = this.buffer.truncate(committed);
+        if (null != this.wal)
+            this.wal.truncate(committed);
+        if (purged > 0)
+            SnowpipeRestEngine.logger.info(String.format("Purged %d batches from %s up to %d", purged, this.key, committed));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Collects the batches of concurrent requests to one table into a shared batch, which is
+// inserted once it holds max_batch_rows rows or max_batch_bytes bytes, or max_linger_ms after
+// its first rows arrived. Each row keeps its request's response, so errors go back to the right caller.
+public class SnowpipeRestCoalescer {
+    private final String name;
+    private final long max_linger_ms;
+    private final int max_batch_rows;
+    private final long max_batch_bytes;
+    private final Consumer<SnowpipeRestBatch> insert;
+    private final ScheduledExecutorService timer;
+    private final Executor workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private SnowpipeRestBatch pending;
+    private CompletableFuture<Void> pending_done;
+    private ScheduledFuture<?> linger;
+
+    public SnowpipeRestCoalescer(String name, long max_linger_ms, int max_batch_rows, long max_batch_bytes,
+                                 Consumer<SnowpipeRestBatch> insert, ScheduledExecutorService timer, Executor workers) {
+        this.name = name;
+        this.max_linger_ms = max_linger_ms;
+        this.max_batch_rows = max_batch_rows;
+        this.max_batch_bytes = max_batch_bytes;
+        this.insert = insert;
+        this.timer = timer;
+        this.workers = workers;
+    }
+
+    // Adds a request's batch; the future completes when the shared batch holding it has been inserted.
+    // The batch's memory admission moves to the shared batch.
+    public CompletableFuture<Void> submit(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp) {
+        SnowpipeRestBatch full = null;
+        CompletableFuture<Void> done;
+        this.lock.lock();
+        try {
+            if (null == this.pending) {
+                SnowpipeRestBatch next = new SnowpipeRestBatch(this.max_batch_rows > 0 ? this.max_batch_rows : 16);
+                this.pending = next;
+                this.pending_done = new CompletableFuture<Void>();
+                this.linger = this.timer.schedule(() -> expire(next), this.max_linger_ms, TimeUnit.MILLISECONDS);
+            }
+            for (int i = 0; i < batch.size(); i++)
+                this.pending.add(batch.rows.get(i), batch.requestIndex(i), 0, sp_resp);
+            this.pending.bytes += batch.getBytes();
+            if (null != batch.admitted) {
+                this.pending.admitted = batch.admitted;
+                batch.admitted = null;
+            }
+            done = this.pending_done;
+            if ((this.max_batch_rows > 0 && this.pending.size() >= this.max_batch_rows)
+                    || (this.max_batch_bytes > 0 && this.pending.getBytes() >= this.max_batch_bytes)) {
+                full = this.pending;
+                this.pending = null;
+                this.linger.cancel(false);
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+        if (null != full)
+            flush(full, done);
+        return done;
+    }
+
+    // Inserts the shared batch when it has lingered long enough, unless it has already been flushed
+    private void expire(SnowpipeRestBatch batch) {
+        CompletableFuture<Void> done;
+        this.lock.lock();
+        try {
+            if (batch != this.pending)
+                return;
+            this.pending = null;
+            done = this.pending_done;
+        }
+        finally {
+            this.lock.unlock();
+        }
+        flush(batch, done);
+    }
+
+    private void flush(SnowpipeRestBatch batch, CompletableFuture<Void> done) {
+        CompletableFuture.runAsync(() -> this.insert.accept(batch), this.workers)
+                .whenComplete((v, e) -> {
+                    if (null != e) {
+                        SnowpipeRestEngine.logger.error(String.format("Coalesced insert of %d rows into %s failed: %s", batch.size(), this.name, e.getMessage()));
+                        done.completeExceptionally(e);
+                    }
+                    else {
+                        done.complete(null);
+                    }
+                });
+    }
+}
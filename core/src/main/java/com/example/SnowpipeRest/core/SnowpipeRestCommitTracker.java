@@ -0,0 +1,95 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+import net.snowflake.ingest.utils.SFException;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Waits, on the caller's thread, for a channel's offset tokens to be committed, for callers that
+// block rather than wait on the purger, like the Lambda handler.
+// The first check is made when the commit is expected, from the commit latency seen so far on
+// the channel, and later checks back off exponentially. The committed offset is the watcher's,
+// so inserts already covered by a commit the purger or another waiter has seen return without
+// asking the SDK, and waiters that check at the same time share one call.
+public class SnowpipeRestCommitTracker {
+    private static final long MIN_POLL_MS = 25;
+    private static final long MAX_POLL_MS = 1000;
+    // The SDK flushes about once a second by default
+    private static final long INITIAL_LATENCY_MS = 1000;
+
+    private final SnowpipeRestChannelState state;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long polled_at = 0;
+    // Moving average of the time from insert to the commit being seen
+    private double latency_ms = INITIAL_LATENCY_MS;
+
+    SnowpipeRestCommitTracker(SnowpipeRestChannelState state) {
+        this.state = state;
+    }
+
+    // Waits until the token inserted at inserted_at (System.nanoTime) is committed, or the
+    // deadline (System.nanoTime) passes; returns whether it was committed
+    public boolean awaitCommit(long token, long inserted_at, long deadline) throws InterruptedException {
+        // Sleep until shortly before the commit is expected, then poll with growing intervals
+        long wait_ms = Math.max(MIN_POLL_MS, (long)(expectedLatency() * 0.8) - (System.nanoTime() - inserted_at) / 1_000_000L);
+        long backoff_ms = MIN_POLL_MS;
+        while (true) {
+            if (committed(token, inserted_at))
+                return true;
+            long remaining_ms = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remaining_ms <= 0)
+                return false;
+            Thread.sleep(Math.min(wait_ms, remaining_ms));
+            wait_ms = backoff_ms;
+            backoff_ms = Math.min(MAX_POLL_MS, backoff_ms * 2);
+        }
+    }
+
+    public double expectedLatency() {
+        this.lock.lock();
+        try {
+            return this.latency_ms;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean committed(long token, long inserted_at) {
+        if (this.state.watcher.getCommitted() >= token)
+            return true;
+        this.lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (now - this.polled_at >= MIN_POLL_MS * 1_000_000L) {
+                this.polled_at = now;
+                poll();
+            }
+            if (this.state.watcher.getCommitted() < token)
+                return false;
+            this.latency_ms = 0.8 * this.latency_ms + 0.2 * ((now - inserted_at) / 1_000_000.0);
+            return true;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Only the watcher is updated; freeing the buffer is left to the purger
+    private void poll() {
+        try {
+            SnowflakeStreamingIngestChannel channel = this.state.channel;
+            if (null == channel)
+                return;
+            String committed = channel.getLatestCommittedOffsetToken();
+            if (null != committed)
+                this.state.watcher.committed(Long.parseLong(committed));
+        }
+        catch (SFException e) {
+            // The channel is being recovered; the replayed batches keep their tokens, so check again later
+        }
+        catch (NumberFormatException e) {
+            SnowpipeRestEngine.logger.info(String.format("Ignoring non-numeric offset token for %s: %s", this.state.key, e.getMessage()));
+        }
+    }
+}
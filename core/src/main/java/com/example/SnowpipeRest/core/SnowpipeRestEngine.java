@@ -0,0 +1,1046 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import net.snowflake.ingest.streaming.ColumnProperties;
+import net.snowflake.ingest.streaming.InsertValidationResponse;
+import net.snowflake.ingest.streaming.OpenChannelRequest;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+import net.snowflake.ingest.utils.ParameterProvider;
+import net.snowflake.ingest.utils.SFException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// The ingest path shared by the Spring Boot service and the Lambda: opens each table's channels,
+// reads request bodies into batches, admits them against the memory budgets, inserts them under
+// per-channel offset tokens, keeps them in the replay buffer (and write-ahead log) until Snowflake
+// commits them, and reopens and replays a channel that the SDK invalidates.
+// Recovering an invalidated channel runs in the background, once per channel however many
+// requests see the failure: the channel is reopened and its buffer replayed in token order,
+// at up to replay_rate rows a second. Batches sent to the channel meanwhile are queued at the
+// end of the buffer, so the replay inserts them in order and their requests wait for it.
+public class SnowpipeRestEngine implements AutoCloseable {
+    static Logger logger = LoggerFactory.getLogger(SnowpipeRestEngine.class);
+
+    private final SnowpipeRestSettings settings;
+    private final IngestMetrics.Factory metrics;
+    private final ObjectMapper objectMapper = makeObjectMapper();
+    private final String client_name;
+    private final SnowflakeStreamingIngestClient snowpipe_client;
+    private final SnowpipeRestChannelRegistry channels;
+    private final SnowpipeRestChannelRouter router;
+    private final SnowpipeRestMemoryBudget global_budget;
+    private final ExecutorService workers;
+    private final SnowpipeRestPurger purger;
+    private ScheduledExecutorService linger_timer;
+    private Path wal_root;
+    // Requests between save/saveRows and their return, which a drain waits for
+    private final AtomicInteger requests = new AtomicInteger(0);
+    // Set by drain: new requests are turned away, and then the channels are closed
+    private volatile boolean draining = false;
+    private volatile boolean closing = false;
+    // When the drain must be done by; close gives the workers until then to finish
+    private volatile long drain_deadline;
+    private static final String WAL_TABLE_FILE = "TABLE";
+    private static final long MAX_RECOVERY_BACKOFF_MS = 10000;
+
+    // credentials holds the Snowflake url, user, role and private_key, if the backend needs them
+    public SnowpipeRestEngine(SnowpipeRestSettings settings, IngestBackend backend, Properties credentials, IngestMetrics.Factory metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+        long global_budget_bytes = (settings.global_budget_bytes > 0) ? settings.global_budget_bytes : Runtime.getRuntime().maxMemory() / 2;
+        if (!SnowpipeRestSettings.ADMISSION_BLOCK.equals(settings.admission_mode) && !SnowpipeRestSettings.ADMISSION_REJECT.equals(settings.admission_mode))
+            throw new IllegalArgumentException(String.format("Unknown admission mode: %s", settings.admission_mode));
+        Properties props = new Properties();
+        props.putAll(credentials);
+        setParameters(props, global_budget_bytes);
+        logger.info(String.format("Ingest backend: %s", backend.getClass().getSimpleName()));
+        this.workers = makeWorkers();
+        if (settings.max_linger_ms > 0)
+            this.linger_timer = Executors.newSingleThreadScheduledExecutor(threadFactory("snowpiperest-linger-"));
+        this.global_budget = new SnowpipeRestMemoryBudget("Snowpipe REST", global_budget_bytes, null, SnowpipeRestException.SERVICE_UNAVAILABLE, settings.retry_after);
+        this.channels = new SnowpipeRestChannelRegistry(settings.channels_per_table, settings.max_buffer_bytes, settings.table_budget_bytes,
+                this.global_budget, settings.retry_after);
+        this.router = new SnowpipeRestChannelRouter(settings.channel_routing, settings.partition_key);
+        if (!settings.wal_dir.isEmpty()) {
+            // The channel names must survive a restart for the WAL to be replayed into them
+            this.wal_root = Paths.get(settings.wal_dir, settings.instance_id);
+            logger.info(String.format("Write-ahead log: %s", this.wal_root));
+        }
+        // Connect to Snowflake with credentials.
+        try {
+            // Make Snowflake Streaming Ingest Client
+            this.client_name = "SNOWPIPE_REST_" + settings.instance_id;
+            this.snowpipe_client = backend.createClient(this.client_name, props);
+            this.purger = new SnowpipeRestPurger(this.channels, this.snowpipe_client, settings.purge_rate, settings.purge_rate_idle,
+                    threadFactory("snowpiperest-purger-"));
+            this.purger.start();
+            if (null != this.wal_root)
+                recoverWalTables();
+        } catch (Exception e) {
+            // Handle Exception for Snowpipe Streaming objects
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void setParameters(Properties props, long global_budget_bytes) {
+        SnowpipeRestSettings s = this.settings;
+        logger.info(String.format("Setting Snowpipe Parameters"));
+        logger.info(String.format("INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE: %d", s.insert_throttle_threshold_in_percentage));
+        logger.info(String.format("MAX_CLIENT_LAG: %d", s.max_client_lag));
+        logger.info(String.format("MAX_CHANNEL_SIZE_IN_BYTES: %d", s.max_channel_size_in_bytes));
+        logger.info(String.format("MAX_CHUNK_SIZE_IN_BYTES: %d", s.max_chunk_size_in_bytes));
+        if (s.insert_throttle_threshold_in_percentage > 0)
+            props.put(ParameterProvider.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE, s.insert_throttle_threshold_in_percentage);
+        if (s.max_client_lag > 0)
+            props.put(ParameterProvider.MAX_CLIENT_LAG, s.max_client_lag);
+        if (s.max_channel_size_in_bytes > 0)
+            props.put(ParameterProvider.MAX_CHANNEL_SIZE_IN_BYTES, s.max_channel_size_in_bytes);
+        if (s.max_chunk_size_in_bytes > 0)
+            props.put(ParameterProvider.MAX_CHUNK_SIZE_IN_BYTES, s.max_chunk_size_in_bytes);
+        if (s.io_time_cpu_ratio > 0)
+            props.put(ParameterProvider.IO_TIME_CPU_RATIO, s.io_time_cpu_ratio);
+        props.put(ParameterProvider.ENABLE_SNOWPIPE_STREAMING_METRICS, true);
+        if (s.disable_buffering)
+            logger.info("Disabling buffering");
+        logger.info(String.format("Channels per table: %d (%s routing)", s.channels_per_table, s.channel_routing));
+        if (s.max_linger_ms > 0)
+            logger.info(String.format("Coalescing requests for up to %d ms, %d rows or %d bytes", s.max_linger_ms, s.max_batch_rows, s.max_batch_bytes));
+        logger.info(String.format("Memory budget: %d bytes, %d per table (%s admission)", global_budget_bytes, s.table_budget_bytes, s.admission_mode));
+    }
+
+    // Rows read from Arrow bodies hold java.time values and byte arrays. They are written to the
+    // write-ahead log and error responses in the string forms Snowflake parses: ISO-8601 and hex.
+    private static ObjectMapper makeObjectMapper() {
+        SimpleModule binary = new SimpleModule().addSerializer(byte[].class, new StdSerializer<byte[]>(byte[].class) {
+            @Override
+            public void serialize(byte[] value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+                gen.writeString(HexFormat.of().formatHex(value));
+            }
+        });
+        return new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .registerModule(binary)
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    // Pipelined batch inserts and the purge scheduler run on these threads rather than the common ForkJoinPool
+    public ThreadFactory threadFactory(String name) {
+        if (this.settings.virtual_threads)
+            return Thread.ofVirtual().name(name, 0).factory();
+        return Thread.ofPlatform().name(name, 0).daemon(true).factory();
+    }
+
+    private ExecutorService makeWorkers() {
+        if (this.settings.virtual_threads) {
+            logger.info("Using virtual threads");
+            return Executors.newThreadPerTaskExecutor(threadFactory("snowpiperest-"));
+        }
+        return Executors.newCachedThreadPool(threadFactory("snowpiperest-"));
+    }
+
+    public String getClientName() {
+        return this.client_name;
+    }
+
+    public SnowpipeRestMemoryBudget getGlobalBudget() {
+        return this.global_budget;
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return this.objectMapper;
+    }
+
+    // Gets the state for the table, opening its Snowflake Streaming Ingest Channels if needed
+    public SnowpipeRestTableState open(String database, String schema, String table) {
+        if (null == database)
+            throw new RuntimeException("Must specify database");
+        if (null == schema)
+            throw new RuntimeException("Must specify schema");
+        if (null == table)
+            throw new RuntimeException("Must specify table");
+        if (this.closing)
+            throw unavailable();
+        SnowpipeRestTableState state = this.channels.getOrCreate(database, schema, table);
+        if (state.opened)
+            return state;
+
+        state.lock.lock();
+        try {
+            if (!state.opened) {
+                if (null == state.metrics)
+                    state.metrics = this.metrics.forTable(state);
+                for (SnowpipeRestChannelState channel : state.channels) {
+                    channel.lock.lock();
+                    try {
+                        openChannel(channel);
+                        if (null != this.wal_root)
+                            recoverWal(channel);
+                    }
+                    finally {
+                        channel.lock.unlock();
+                    }
+                }
+                this.metrics.opened(state);
+                if (this.settings.max_linger_ms > 0)
+                    state.coalescer = new SnowpipeRestCoalescer(state.key, this.settings.max_linger_ms, this.settings.max_batch_rows, this.settings.max_batch_bytes,
+                            b -> insertBatch(b, null, state), this.linger_timer, this.workers);
+                state.opened = true;
+            }
+            return state;
+        }
+        catch (SnowpipeRestTableNotFoundException e) {
+            closeChannels(state);
+            this.channels.remove(state);
+            throw e;
+        }
+        finally {
+            state.lock.unlock();
+        }
+    }
+
+    // Must hold the table's lock. Closes the channels a failed open had already opened, so they
+    // are not left open, and unused, until the client closes.
+    private void closeChannels(SnowpipeRestTableState state) {
+        for (SnowpipeRestChannelState channel : state.channels) {
+            channel.lock.lock();
+            try {
+                if (null == channel.channel)
+                    continue;
+                channel.channel.close();
+                channel.channel = null;
+            }
+            catch (RuntimeException e) {
+                logger.info(String.format("Unable to close channel %s: %s", channel.key, e.getMessage()));
+            }
+            finally {
+                channel.lock.unlock();
+            }
+        }
+    }
+
+    // Must hold the channel's lock
+    private void openChannel(SnowpipeRestChannelState state) {
+        try {
+            OpenChannelRequest request1 = OpenChannelRequest.builder(String.format("SNOWPIPE_REST_CHANNEL_%s_%d", this.settings.instance_id, state.index))
+                    .setDBName(state.table.database)
+                    .setSchemaName(state.table.schema)
+                    .setTableName(state.table.table)
+                    .setOnErrorOption(OpenChannelRequest.OnErrorOption.CONTINUE)
+                    .build();
+            SnowflakeStreamingIngestChannel channel = this.snowpipe_client.openChannel(request1);
+            state.advanceTokensPast(channel.getLatestCommittedOffsetToken());
+            if (this.settings.typed_rows)
+                updateSchema(state.table, channel);
+            state.channel = channel;
+        } catch (Exception e) {
+            // Handle Exception for Snowpipe Streaming objects
+            logger.error(String.format("Unable to open channel %s", state.key), e);
+            throw new SnowpipeRestTableNotFoundException(String.format("Table not found (or no permissions): %s", state.table.key));
+        }
+    }
+
+    // Caches the table's columns, replacing the cached ones if a reopen shows they have changed
+    private void updateSchema(SnowpipeRestTableState table, SnowflakeStreamingIngestChannel channel) {
+        Map<String, ColumnProperties> columns = channel.getTableSchema();
+        // Every table has a column, so no columns means the channel could not say; rows go through unconverted
+        if (null == columns || columns.isEmpty()) {
+            logger.info(String.format("No columns reported for %s; rows will not be converted", table.key));
+            table.columns = null;
+            return;
+        }
+        SnowpipeRestTableSchema schema = new SnowpipeRestTableSchema(columns);
+        SnowpipeRestTableSchema old = table.columns;
+        if (schema.sameAs(old))
+            return;
+        if (null != old)
+            logger.info(String.format("Schema of %s changed", table.key));
+        table.columns = schema;
+    }
+
+    // Must hold the channel's lock. Opens the channel's write-ahead log and replays whatever a
+    // previous run left uncommitted, under the same offset tokens.
+    private void recoverWal(SnowpipeRestChannelState state) {
+        Path table_dir = this.wal_root.resolve(state.table.key.replaceAll("[^A-Za-z0-9._-]", "_"));
+        writeTableInfo(table_dir, state.table);
+        state.wal = new SnowpipeRestWal(table_dir.resolve(String.valueOf(state.index)), this.settings.wal_segment_bytes, this.settings.wal_sync, this.objectMapper);
+        List<SnowpipeRestWal.Record> records = state.wal.recover();
+        long committed = state.offset.get();
+        int replay = 0;
+        for (SnowpipeRestWal.Record record : records) {
+            if (record.token <= committed)
+                continue;
+            state.buffer.restore(record.token, SnowpipeRestBatch.spilled(record, record.length));
+            state.advanceTokensPast(String.valueOf(record.token));
+            replay++;
+        }
+        if (replay > 0) {
+            logger.info(String.format("Replaying %d uncommitted batches from the WAL for %s", replay, state.key));
+            startRecovery(state, false);
+        }
+    }
+
+    // Records which table a WAL directory belongs to, so it can be recovered at startup
+    private void writeTableInfo(Path table_dir, SnowpipeRestTableState table) {
+        try {
+            Files.createDirectories(table_dir);
+            Files.write(table_dir.resolve(WAL_TABLE_FILE), List.of(table.database, table.schema, table.table));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Opens every table that has a WAL directory from a previous run, which replays its uncommitted batches
+    private void recoverWalTables() {
+        try {
+            Files.createDirectories(this.wal_root);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(this.wal_root)) {
+            for (Path dir : dirs) {
+                Path info = dir.resolve(WAL_TABLE_FILE);
+                if (!Files.exists(info))
+                    continue;
+                List<String> names = Files.readAllLines(info);
+                try {
+                    open(names.get(0), names.get(1), names.get(2));
+                }
+                catch (RuntimeException e) {
+                    logger.error(String.format("Unable to recover WAL for %s", dir), e);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // With ndjson, the body is one JSON object per line rather than a JSON array. Either way it is
+    // read as it arrives, so a chunked upload of any length is inserted in constant memory.
+    // At most errors_limit error rows are kept for the response (negative for all of them).
+    public SnowpipeInsertResponse save(String database, String schema, String table, InputStream body, boolean ndjson, int errors_limit) {
+        enter();
+        try {
+            // Get ingest channels up front, so a bad table fails before the body is read
+            SnowpipeRestTableState state = open(database, schema, table);
+            return insert(state, new SnowpipeRestRowReader(this.objectMapper, body, ndjson, this.settings.typed_rows), errors_limit);
+        }
+        finally {
+            this.requests.decrementAndGet();
+        }
+    }
+
+    public SnowpipeInsertResponse saveRows(SnowpipeRestTableState state, SnowpipeRestRowSource source, int errors_limit) {
+        enter();
+        try {
+            return insert(state, source, errors_limit);
+        }
+        finally {
+            this.requests.decrementAndGet();
+        }
+    }
+
+    // Counts the request in, unless the engine is draining. The count is taken before the flag
+    // is read, so a drain that has seen no requests cannot miss one that got in.
+    private void enter() {
+        this.requests.incrementAndGet();
+        if (this.draining) {
+            this.requests.decrementAndGet();
+            throw unavailable();
+        }
+    }
+
+    private SnowpipeRestException unavailable() {
+        return new SnowpipeRestBackpressureException(SnowpipeRestException.SERVICE_UNAVAILABLE, "Shutting down.", this.settings.retry_after);
+    }
+
+    private SnowpipeInsertResponse insert(SnowpipeRestTableState state, SnowpipeRestRowSource source, int errors_limit) {
+        // Parse body and dispatch each batch as soon as it fills
+        SnowpipeInsertResponse sp_resp = new SnowpipeInsertResponse(0, 0, 0).setErrors_limit(errors_limit);
+        CompletableFuture<Void> in_flight = CompletableFuture.completedFuture(null);
+        int batch_size = this.settings.batch_size;
+        int row_index = 0;
+        int num_batches = 0;
+        // Only the time in the reader counts as parsing, not the time dispatching batches
+        long parse_nanos = 0;
+        try (SnowpipeRestRowSource reader = source) {
+            SnowpipeRestBatch batch = newBatch();
+            long start = System.nanoTime();
+            for (Map<String,Object> row = reader.next(); null != row; row = reader.next()) {
+                long read = System.nanoTime();
+                parse_nanos += read - start;
+                batch.add(row, row_index++, reader.getLastRowBytes());
+                if (batch_size > 0 && batch.size() >= batch_size) {
+                    in_flight = dispatchBatch(in_flight, batch, sp_resp, state);
+                    num_batches++;
+                    batch = newBatch();
+                    start = System.nanoTime();
+                }
+                else {
+                    start = read;
+                }
+            }
+            parse_nanos += System.nanoTime() - start;
+            state.metrics.parsed(parse_nanos);
+            if (!batch.isEmpty()) {
+                in_flight = dispatchBatch(in_flight, batch, sp_resp, state);
+                num_batches++;
+            }
+        }
+        catch (SnowpipeRestException e) {
+            // Parse errors, size limits and backpressure say how much of the request got in
+            awaitBatch(in_flight);
+            if (num_batches > 0)
+                throw e.afterInserting(sp_resp.getNum_attempted());
+            throw e;
+        }
+        catch (RuntimeException e) {
+            // Any other failure also waits for the batch in flight, so it does not outlive the request
+            try {
+                awaitBatch(in_flight);
+            }
+            catch (RuntimeException ie) {
+                e.addSuppressed(ie);
+            }
+            throw e;
+        }
+        awaitBatch(in_flight);
+        logger.info(String.format("Inserted %d batches.", num_batches));
+        return sp_resp;
+    }
+
+    private SnowpipeRestBatch newBatch() {
+        return new SnowpipeRestBatch(this.settings.batch_size > 0 ? this.settings.batch_size : 16);
+    }
+
+    // Hands a full batch to the channels. When pipelining, the insert runs on a worker
+    // while the caller parses the next batch; at most one batch is in flight so tokens stay in order.
+    // The batch's bytes are admitted against the table and global budgets first, on the request thread,
+    // so a client sending faster than Snowflake commits is slowed down or turned away before more is read.
+    private CompletableFuture<Void> dispatchBatch(CompletableFuture<Void> in_flight, SnowpipeRestBatch batch,
+                                                  SnowpipeInsertResponse sp_resp, SnowpipeRestTableState state) {
+        state.budget.acquire(batch.getBytes(), SnowpipeRestSettings.ADMISSION_REJECT.equals(this.settings.admission_mode) ? 0 : this.settings.admission_wait);
+        batch.admitted = state.budget;
+        try {
+            awaitBatch(in_flight);
+        }
+        catch (RuntimeException e) {
+            batch.releaseAdmission();
+            throw e;
+        }
+        if (null != state.coalescer)
+            return state.coalescer.submit(batch, sp_resp);
+        if (!this.settings.pipelined_dispatch) {
+            insertBatch(batch, sp_resp, state);
+            return in_flight;
+        }
+        return CompletableFuture.runAsync(() -> insertBatch(batch, sp_resp, state), this.workers);
+    }
+
+    private void awaitBatch(CompletableFuture<Void> in_flight) {
+        try {
+            in_flight.join();
+        }
+        catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ce.getCause();
+            throw ce;
+        }
+    }
+
+    private void insertBatch(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestTableState state) {
+        SnowpipeRestTableSchema schema = state.columns;
+        if (null != schema) {
+            int rows = batch.size();
+            batch = convertRows(batch, sp_resp, schema);
+            state.metrics.rows(0, rows - batch.size());
+            if (batch.isEmpty()) {
+                batch.releaseAdmission();
+                return;
+            }
+        }
+        SnowpipeRestBatch[] routed = this.router.route(state, batch);
+        int c = 0;
+        try {
+            for (; c < routed.length; c++) {
+                if (null != routed[c]) {
+                    routed[c].admitted = batch.admitted;
+                    insertBatch(routed[c], sp_resp, state.channels[c]);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // Give back the admission of the parts that were never inserted
+            for (c++; c < routed.length; c++) {
+                if (null != routed[c])
+                    batch.admitted.release(routed[c].getBytes());
+            }
+            throw e;
+        }
+    }
+
+    // Converts each row by the table's schema. Rows that cannot be inserted are reported as errors
+    // here and left out; the rest keep their request index, and the batch keeps its admitted bytes.
+    private SnowpipeRestBatch convertRows(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestTableSchema schema) {
+        SnowpipeRestBatch converted = new SnowpipeRestBatch(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String,Object> row = batch.rows.get(i);
+            try {
+                converted.add(schema.convert(row), batch.requestIndex(i), 0, batch.response(i, null));
+            }
+            catch (SnowpipeRestTableSchema.RowException e) {
+                SnowpipeInsertResponse r = batch.response(i, sp_resp);
+                r.add_metrics(1, 0, 1);
+                reportError(r, batch.requestIndex(i), row, e.getMessage());
+            }
+        }
+        converted.bytes = batch.getBytes();
+        converted.admitted = batch.admitted;
+        batch.admitted = null;
+        return converted;
+    }
+
+    // A coalesced batch is passed no response: each row reports to the response of its own request.
+    // The batch's admission is freed here unless the replay buffer keeps its rows on the heap,
+    // in which case the buffer frees it once Snowflake commits the batch
+    private void insertBatch(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestChannelState state) {
+        InsertValidationResponse resp;
+        if (this.settings.disable_buffering) {
+            try {
+                resp = insertUnbuffered(batch, sp_resp, state);
+            }
+            finally {
+                batch.releaseAdmission();
+            }
+        }
+        else {
+            try {
+                state.buffer.reserve(batch.getBytes(), this.settings.buffer_wait);
+            }
+            catch (RuntimeException e) {
+                batch.releaseAdmission();
+                throw e;
+            }
+            resp = insertBuffered(batch, sp_resp, state);
+        }
+        this.purger.wake();
+
+        // Make response
+        IngestMetrics metrics = state.table.metrics;
+        metrics.batch(batch.size(), batch.getBytes());
+        metrics.rows(batch.size() - resp.getErrorRowCount(), resp.getErrorRowCount());
+        if (null == batch.row_response) {
+            sp_resp.add_metrics(batch.size(), batch.size() - resp.getErrorRowCount(), resp.getErrorRowCount());
+        }
+        else {
+            Map<SnowpipeInsertResponse,Integer> attempted = new IdentityHashMap<SnowpipeInsertResponse,Integer>();
+            for (int i = 0; i < batch.size(); i++)
+                attempted.merge(batch.response(i, sp_resp), 1, Integer::sum);
+            for (Map.Entry<SnowpipeInsertResponse,Integer> e : attempted.entrySet())
+                e.getKey().add_metrics(e.getValue(), e.getValue(), 0);
+        }
+        for (InsertValidationResponse.InsertError insertError : resp.getInsertErrors()) {
+            // Only rows that failed are serialized back for the response
+            int idx = (int)insertError.getRowIndex();
+            SnowpipeInsertResponse r = batch.response(idx, sp_resp);
+            if (null != batch.row_response)
+                r.add_metrics(0, -1, 1);
+            reportError(r, batch.requestIndex(idx), batch.rows.get(idx), insertError.getMessage());
+        }
+    }
+
+    // The batch's bytes are reserved in the buffer. If the channel is recovering, or the insert
+    // finds it invalidated, the batch is queued for the replay instead and this waits for it.
+    // A batch whose insert fails otherwise is marked skipped in the write-ahead log, so a restart
+    // does not insert rows the client may send again.
+    private InsertValidationResponse insertBuffered(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestChannelState state) {
+        InsertValidationResponse resp = null;
+        SnowpipeRestBatch buffered;
+        SnowpipeRestWal.Record record = null;
+        long token;
+        boolean added = false;
+        boolean kept = false;
+        state.lock.lock();
+        try {
+            // Closed channels take no more rows; a request still running when the drain gave up on it ends here
+            if (this.closing)
+                throw unavailable();
+            token = state.nextToken();
+            record = (null != state.wal) ? state.wal.append(token, batch.rows) : null;
+            kept = (null == record);
+            buffered = kept ? batch : SnowpipeRestBatch.spilled(record, batch.getBytes());
+            if (null == state.recovering) {
+                try {
+                    resp = insertRows(batch.rows, String.valueOf(token), state);
+                }
+                catch (SFException e) {
+                    logger.info(String.format("Channel %s invalidated: %s", state.key, e.getMessage()));
+                    startRecovery(state, true);
+                }
+            }
+            if (null == resp)
+                buffered.queued = new CompletableFuture<InsertValidationResponse>();
+            state.buffer.put(token, buffered);
+            added = true;
+            recordToken(batch, sp_resp, state, token);
+        }
+        finally {
+            if (!added && null != record)
+                state.wal.skip(record);
+            state.lock.unlock();
+            if (!added)
+                state.buffer.release(batch.getBytes());
+            // Only a batch the buffer holds on the heap keeps its admission; a failure before it
+            // was added must give the admission back too, or the budgets leak
+            if (!added || !kept)
+                batch.releaseAdmission();
+        }
+        return (null != resp) ? resp : awaitReplay(buffered, token, state);
+    }
+
+    // Waits up to recovery_wait for the replay to insert a queued batch. If it does not, the batch
+    // is dropped before the request fails, so a retry does not duplicate its rows.
+    private InsertValidationResponse awaitReplay(SnowpipeRestBatch buffered, long token, SnowpipeRestChannelState state) {
+        try {
+            return buffered.queued.get(this.settings.recovery_wait, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            throw (SnowpipeRestException)e.getCause();
+        }
+        catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            state.lock.lock();
+            try {
+                if (buffered.queued.isDone())
+                    return buffered.queued.join();
+                dropBatch(state, token, buffered);
+            }
+            finally {
+                state.lock.unlock();
+            }
+            throw recovering(state);
+        }
+    }
+
+    // Must hold the channel's lock. Takes the batch of a failing request out of the buffer and the
+    // write-ahead log, so neither a replay nor a restart inserts it
+    private void dropBatch(SnowpipeRestChannelState state, long token, SnowpipeRestBatch batch) {
+        state.buffer.remove(token);
+        if (null != batch.wal_record)
+            state.wal.skip(batch.wal_record);
+    }
+
+    // Without the replay buffer nothing is queued: a batch that meets an invalidated or recovering
+    // channel waits for the reopen and is then sent again under a new token
+    private InsertValidationResponse insertUnbuffered(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestChannelState state) {
+        for (int attempt = 1; ; attempt++) {
+            CompletableFuture<Void> recovery;
+            state.lock.lock();
+            try {
+                if (this.closing)
+                    throw unavailable();
+                recovery = state.recovering;
+                if (null == recovery) {
+                    long token = state.nextToken();
+                    try {
+                        InsertValidationResponse resp = insertRows(batch.rows, String.valueOf(token), state);
+                        recordToken(batch, sp_resp, state, token);
+                        return resp;
+                    }
+                    catch (SFException e) {
+                        logger.info(String.format("Channel %s invalidated: %s", state.key, e.getMessage()));
+                        recovery = startRecovery(state, true);
+                    }
+                }
+            }
+            finally {
+                state.lock.unlock();
+            }
+            if (attempt > this.settings.recovery_attempts)
+                throw recovering(state);
+            try {
+                recovery.get(this.settings.recovery_wait, TimeUnit.MILLISECONDS);
+            }
+            catch (ExecutionException e) {
+                throw (SnowpipeRestException)e.getCause();
+            }
+            catch (TimeoutException e) {
+                throw recovering(state);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw recovering(state);
+            }
+        }
+    }
+
+    private void recordToken(SnowpipeRestBatch batch, SnowpipeInsertResponse sp_resp, SnowpipeRestChannelState state, long token) {
+        if (null == batch.row_response) {
+            sp_resp.recordToken(state, token);
+        }
+        else {
+            for (int i = 0; i < batch.size(); i++)
+                batch.response(i, sp_resp).recordToken(state, token);
+        }
+    }
+
+    private SnowpipeRestException recovering(SnowpipeRestChannelState state) {
+        return new SnowpipeRestBackpressureException(SnowpipeRestException.SERVICE_UNAVAILABLE,
+                String.format("Channel for %s is recovering.", state.table.key), this.settings.retry_after);
+    }
+
+    // Completes once Snowflake has committed every batch of the response
+    public CompletableFuture<SnowpipeInsertResponse> awaitCommit(SnowpipeInsertResponse sp_resp) {
+        CompletableFuture<?>[] commits = sp_resp.last_tokens.entrySet().stream()
+                .map(e -> e.getKey().watcher.await(e.getValue()))
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(commits).thenApply(v -> sp_resp);
+    }
+
+    // Blocks until Snowflake has committed every batch of the response, or timeout_ms has passed
+    // since its last insert, checking each channel with adaptive backoff rather than waiting on
+    // the purger; returns whether it was committed
+    public boolean awaitCommit(SnowpipeInsertResponse sp_resp, long timeout_ms) throws InterruptedException {
+        long deadline = sp_resp.inserted_at + timeout_ms * 1_000_000L;
+        for (Map.Entry<SnowpipeRestChannelState, Long> e : sp_resp.last_tokens.entrySet()) {
+            if (!e.getKey().tracker.awaitCommit(e.getValue(), sp_resp.inserted_at, deadline))
+                return false;
+        }
+        return true;
+    }
+
+    // Rows past the response's error limit are counted but not serialized
+    private void reportError(SnowpipeInsertResponse sp_resp, int row_index, Map<String,Object> row, String error) {
+        if (sp_resp.keepsErrors())
+            sp_resp.addError(row_index, rowToString(row), error);
+        else
+            sp_resp.omitError();
+    }
+
+    private String rowToString(Map<String,Object> row) {
+        try {
+            return objectMapper.writeValueAsString(row);
+        }
+        catch (JsonProcessingException je) {
+            throw new RuntimeException(je);
+        }
+    }
+
+    // Must hold the state's lock. An SFException means the channel needs recovering.
+    private InsertValidationResponse insertRows(List<Map<String,Object>> batch, String new_token, SnowpipeRestChannelState state) {
+        long start = System.nanoTime();
+        InsertValidationResponse resp = state.channel.insertRows(batch, new_token);
+        state.table.metrics.inserted(System.nanoTime() - start);
+        return resp;
+    }
+
+    // Must hold the channel's lock. Starts recovering the channel on a worker, unless it already
+    // is; reopen is false when the channel has just been opened and only its buffer needs replaying.
+    private CompletableFuture<Void> startRecovery(SnowpipeRestChannelState state, boolean reopen) {
+        if (null != state.recovering)
+            return state.recovering;
+        if (this.closing)
+            throw unavailable();
+        CompletableFuture<Void> recovery = new CompletableFuture<Void>();
+        state.recovering = recovery;
+        long start = System.nanoTime();
+        this.workers.execute(() -> recover(state, reopen, start));
+        return recovery;
+    }
+
+    // Reopens and replays, retrying up to recovery_attempts times with jittered exponential backoff
+    private void recover(SnowpipeRestChannelState state, boolean reopen, long start) {
+        IngestMetrics metrics = state.table.metrics;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (reopen || attempt > 1) {
+                    long open_start = System.nanoTime();
+                    state.lock.lock();
+                    try {
+                        if (this.closing)
+                            throw unavailable();
+                        logger.info(String.format("Reopening channel %s (attempt %d)", state.key, attempt));
+                        openChannel(state);
+                    }
+                    finally {
+                        state.lock.unlock();
+                    }
+                    metrics.reopened(System.nanoTime() - open_start);
+                }
+                replay(state);
+                metrics.recovered(System.nanoTime() - start, attempt);
+                logger.info(String.format("Recovered channel %s in %d ms", state.key, (System.nanoTime() - start) / 1_000_000L));
+                return;
+            }
+            catch (RuntimeException e) {
+                if (this.closing || attempt >= this.settings.recovery_attempts) {
+                    failRecovery(state, e, attempt);
+                    metrics.recoveryFailed(System.nanoTime() - start, attempt);
+                    return;
+                }
+                logger.info(String.format("Recovering channel %s failed (attempt %d): %s", state.key, attempt, e.getMessage()));
+                long backoff = Math.min(this.settings.recovery_backoff << Math.min(attempt - 1, 20), MAX_RECOVERY_BACKOFF_MS);
+                try {
+                    // In short steps, so a drain does not wait out the backoff
+                    long wake = System.currentTimeMillis() + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                    for (long now = System.currentTimeMillis(); now < wake && !this.closing; now = System.currentTimeMillis())
+                        Thread.sleep(Math.min(wake - now, 50));
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    failRecovery(state, e, attempt);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Inserts the buffered batches in token order, one at a time under the channel's lock, so
+    // queued inserts can keep arriving. Once no batch is left, the channel is marked recovered
+    // under the same lock, so a batch queued after the last one is never missed.
+    private void replay(SnowpipeRestChannelState state) {
+        long start = System.nanoTime();
+        long paced = start;
+        int replayed = 0;
+        long token = 0;
+        state.lock.lock();
+        try {
+            state.committed(state.channel.getLatestCommittedOffsetToken());
+        }
+        finally {
+            state.lock.unlock();
+        }
+        logger.info(String.format("Replaying buffer: %s", state.key));
+        while (true) {
+            int rows;
+            state.lock.lock();
+            try {
+                if (this.closing)
+                    throw unavailable();
+                Map.Entry<Long, SnowpipeRestBatch> e = state.buffer.entries().higherEntry(token);
+                if (null == e) {
+                    state.recovering.complete(null);
+                    state.recovering = null;
+                    break;
+                }
+                token = e.getKey();
+                SnowpipeRestBatch batch = e.getValue();
+                InsertValidationResponse resp = insertRows(state.rows(batch), String.valueOf(token), state);
+                if (null != batch.queued)
+                    batch.queued.complete(resp);
+                rows = batch.size();
+                replayed++;
+            }
+            finally {
+                state.lock.unlock();
+            }
+            if (this.settings.replay_rate > 0) {
+                paced += rows * 1_000_000_000L / this.settings.replay_rate;
+                try {
+                    // In short steps, so a drain does not wait out the pacing
+                    for (long wait = paced - System.nanoTime(); wait > 0 && !this.closing; wait = paced - System.nanoTime())
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(50)));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw unavailable();
+                }
+            }
+        }
+        state.table.metrics.replayed(System.nanoTime() - start, replayed);
+    }
+
+    // Gives up on the channel until the next insert finds it invalid. The batches it already sent
+    // stay buffered for that recovery; queued ones are taken out and their requests fail.
+    private void failRecovery(SnowpipeRestChannelState state, RuntimeException cause, int attempts) {
+        logger.error(String.format("Unable to recover channel %s after %d attempts: %s", state.key, attempts, cause.getMessage()));
+        SnowpipeRestException failed = this.closing ? unavailable() : recovering(state);
+        state.lock.lock();
+        try {
+            for (Map.Entry<Long, SnowpipeRestBatch> e : state.buffer.entries().entrySet()) {
+                SnowpipeRestBatch batch = e.getValue();
+                if (null != batch.queued && !batch.queued.isDone()) {
+                    dropBatch(state, e.getKey(), batch);
+                    batch.queued.completeExceptionally(failed);
+                }
+            }
+            state.recovering.completeExceptionally(failed);
+            state.recovering = null;
+        }
+        finally {
+            state.lock.unlock();
+        }
+    }
+
+    // Stops taking requests, waits for those in progress and for recoveries to stop, then closes
+    // every channel at once. The SDK's close flushes the channel and completes once Snowflake has
+    // committed what it holds; the replay buffers are then trimmed to the committed offsets.
+    // Everything is bounded by timeout_ms; what is still uncommitted after it is logged, and the
+    // number of rows is returned. Call close after.
+    public long drain(long timeout_ms) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+        long rows = 0;
+        long bytes = 0;
+        this.drain_deadline = deadline;
+        this.draining = true;
+        while (this.requests.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (this.requests.get() > 0)
+            logger.warn(String.format("%d requests still in progress at drain deadline; their remaining rows are turned away", this.requests.get()));
+        this.closing = true;
+
+        // Closing makes recoveries give up at their next step; wait for them, so no channel is
+        // closed while it is being reopened or replayed
+        awaitRecoveries(deadline);
+
+        List<SnowpipeRestChannelState> open = new ArrayList<SnowpipeRestChannelState>();
+        List<CompletableFuture<Void>> closes = new ArrayList<CompletableFuture<Void>>();
+        int skipped = 0;
+        for (SnowpipeRestTableState table : this.channels.all()) {
+            if (!table.opened)
+                continue;
+            for (SnowpipeRestChannelState state : table.channels) {
+                if (null == state.channel)
+                    continue;
+                state.lock.lock();
+                try {
+                    if (null != state.recovering) {
+                        // Still recovering at the deadline: leave its buffer and WAL for the next start
+                        logger.warn(String.format("Channel %s is still recovering; it is not closed", state.key));
+                        skipped++;
+                        rows += state.buffer.getRows();
+                        bytes += state.buffer.getBytes();
+                        continue;
+                    }
+                    open.add(state);
+                    closes.add(state.channel.close());
+                }
+                catch (RuntimeException e) {
+                    closes.add(CompletableFuture.failedFuture(e));
+                }
+                finally {
+                    state.lock.unlock();
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(closes.toArray(new CompletableFuture<?>[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException | ExecutionException e) {
+            // Each channel is checked below
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < open.size(); i++) {
+            SnowpipeRestChannelState state = open.get(i);
+            // Even a clean close only says the channel flushed what it was sent; batches sent to
+            // an earlier, invalidated channel may never have been replayed into it. Only what
+            // Snowflake reports as committed leaves the buffer and the WAL.
+            try {
+                state.committed(state.channel.getLatestCommittedOffsetToken());
+            }
+            catch (SFException e) {
+                logger.info(String.format("Unable to get committed offset for %s: %s", state.key, e.getMessage()));
+            }
+            if (!state.buffer.isEmpty()) {
+                logger.warn(String.format("Channel %s left %d rows (%d bytes, %d batches) uncommitted at shutdown%s", state.key,
+                        state.buffer.getRows(), state.buffer.getBytes(), state.buffer.entries().size(),
+                        (null != state.wal) ? "; they are kept in the write-ahead log" : ""));
+                rows += state.buffer.getRows();
+                bytes += state.buffer.getBytes();
+            }
+        }
+        if (rows > 0)
+            logger.warn(String.format("Drained %d channels (%d left recovering); %d rows (%d bytes) were not committed", open.size(), skipped, rows, bytes));
+        else
+            logger.info(String.format("Drained %d channels; all buffered rows were committed", open.size()));
+        return rows;
+    }
+
+    private void awaitRecoveries(long deadline) {
+        List<CompletableFuture<Void>> recoveries = new ArrayList<CompletableFuture<Void>>();
+        for (SnowpipeRestTableState table : this.channels.all()) {
+            for (SnowpipeRestChannelState state : table.channels) {
+                CompletableFuture<Void> recovery = state.recovering;
+                if (null != recovery)
+                    recoveries.add(recovery);
+            }
+        }
+        if (recoveries.isEmpty())
+            return;
+        try {
+            CompletableFuture.allOf(recoveries.toArray(new CompletableFuture<?>[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException | ExecutionException e) {
+            // Channels still recovering are skipped by the caller
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Stops the background threads and closes the client, which flushes what the channels hold.
+    // After a drain, work already on the workers has until the drain's deadline to finish first.
+    @Override
+    public void close() throws Exception {
+        this.purger.stop();
+        if (null != this.linger_timer)
+            this.linger_timer.shutdownNow();
+        this.workers.shutdown();
+        if (this.draining) {
+            long wait = this.drain_deadline - System.nanoTime();
+            if (wait > 0 && !this.workers.awaitTermination(wait, TimeUnit.NANOSECONDS))
+                logger.warn("Workers still running at drain deadline; closing the client anyway");
+        }
+        this.snowpipe_client.close();
+    }
+}
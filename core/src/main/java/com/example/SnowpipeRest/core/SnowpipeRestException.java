@@ -0,0 +1,30 @@
+package com.example.SnowpipeRest.core;
+
+// A request the engine cannot complete, with the HTTP status the front ends answer it with
+public class SnowpipeRestException extends RuntimeException {
+    public static final int BAD_REQUEST = 400;
+    public static final int NOT_FOUND = 404;
+    public static final int PAYLOAD_TOO_LARGE = 413;
+    public static final int TOO_MANY_REQUESTS = 429;
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    private final int status;
+
+    public SnowpipeRestException(int status, String reason) {
+        super(reason);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return getMessage();
+    }
+
+    // The same failure, reported after the given number of the request's rows were inserted
+    public SnowpipeRestException afterInserting(int inserted) {
+        return new SnowpipeRestException(this.status, String.format("%s %d rows before the error were inserted.", getReason(), inserted));
+    }
+}
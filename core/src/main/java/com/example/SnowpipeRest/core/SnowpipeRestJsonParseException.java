@@ -0,0 +1,12 @@
+package com.example.SnowpipeRest.core;
+
+public class SnowpipeRestJsonParseException extends SnowpipeRestException {
+    public SnowpipeRestJsonParseException(String message) {
+        super(BAD_REQUEST, message);
+    }
+
+    @Override
+    public SnowpipeRestException afterInserting(int inserted) {
+        return new SnowpipeRestJsonParseException(String.format("%s %d rows before the error were inserted.", getReason(), inserted));
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A byte budget that callers draw from and give back. Acquiring also draws from the parent
+// budget, so a table's budget counts against the global one. A full budget makes the caller
+// wait up to its timeout and then fails with the budget's status (429 or 503) and a Retry-After.
+// Anything is let in while the budget is empty, so a batch larger than the limit cannot wait forever.
+public class SnowpipeRestMemoryBudget {
+    private final String name;
+    private final long limit;
+    private final SnowpipeRestMemoryBudget parent;
+    private final int status;
+    private final long retry_after;
+    private final AtomicLong used = new AtomicLong(0);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition space = lock.newCondition();
+
+    public SnowpipeRestMemoryBudget(String name, long limit, SnowpipeRestMemoryBudget parent, int status, long retry_after) {
+        this.name = name;
+        this.limit = limit;
+        this.parent = parent;
+        this.status = status;
+        this.retry_after = retry_after;
+    }
+
+    public void acquire(long n, long timeout_ms) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+        acquireUntil(n, deadline);
+    }
+
+    private void acquireUntil(long n, long deadline) {
+        if (this.limit > 0) {
+            this.lock.lock();
+            try {
+                while (this.used.get() > 0 && this.used.get() + n > this.limit) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        throw new SnowpipeRestBackpressureException(this.status, String.format("%s is over its memory budget (%d of %d bytes in use)", this.name, this.used.get(), this.limit), this.retry_after);
+                    this.space.awaitNanos(left);
+                }
+                this.used.addAndGet(n);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SnowpipeRestBackpressureException(this.status, String.format("Interrupted waiting for %s memory budget", this.name), this.retry_after);
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+        else {
+            this.used.addAndGet(n);
+        }
+        if (null != this.parent) {
+            try {
+                this.parent.acquireUntil(n, deadline);
+            }
+            catch (RuntimeException e) {
+                releaseLocal(n);
+                throw e;
+            }
+        }
+    }
+
+    // Takes n bytes without waiting, e.g. for data recovered at startup that is already in memory
+    public void force(long n) {
+        this.used.addAndGet(n);
+        if (null != this.parent)
+            this.parent.force(n);
+    }
+
+    public void release(long n) {
+        releaseLocal(n);
+        if (null != this.parent)
+            this.parent.release(n);
+    }
+
+    private void releaseLocal(long n) {
+        this.used.addAndGet(-n);
+        if (this.limit <= 0)
+            return;
+        this.lock.lock();
+        try {
+            this.space.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getUsed() {
+        return this.used.get();
+    }
+
+    public long getLimit() {
+        return this.limit;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Futures waiting for a channel's committed offset to reach a token. Shared by every request
+// on the channel; the purger reports each committed offset it reads and completes the waiters.
+public class SnowpipeRestOffsetWatcher {
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters = new ConcurrentSkipListMap<Long, CompletableFuture<Void>>();
+    // Only moves forward, however the purger and the commit trackers race to report it
+    private final AtomicLong committed = new AtomicLong(-1);
+
+    public CompletableFuture<Void> await(long token) {
+        if (token <= this.committed.get())
+            return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> waiter = this.waiters.computeIfAbsent(token, t -> new CompletableFuture<Void>());
+        // The offset may have moved between the check and the insert
+        long committed = this.committed.get();
+        if (token <= committed)
+            committed(committed);
+        return waiter;
+    }
+
+    public void committed(long offset) {
+        this.committed.accumulateAndGet(offset, Math::max);
+        NavigableMap<Long, CompletableFuture<Void>> done = this.waiters.headMap(offset, true);
+        for (Map.Entry<Long, CompletableFuture<Void>> e = done.pollFirstEntry(); null != e; e = done.pollFirstEntry())
+            e.getValue().complete(null);
+    }
+
+    public long getCommitted() {
+        return this.committed.get();
+    }
+
+    public boolean hasWaiters() {
+        return !this.waiters.isEmpty();
+    }
+}
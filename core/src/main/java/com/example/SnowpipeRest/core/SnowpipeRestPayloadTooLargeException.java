@@ -0,0 +1,12 @@
+package com.example.SnowpipeRest.core;
+
+public class SnowpipeRestPayloadTooLargeException extends SnowpipeRestException {
+    public SnowpipeRestPayloadTooLargeException(String message) {
+        super(PAYLOAD_TOO_LARGE, message);
+    }
+
+    @Override
+    public SnowpipeRestException afterInserting(int inserted) {
+        return new SnowpipeRestPayloadTooLargeException(String.format("%s %d rows before the limit were inserted.", getReason(), inserted));
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+import net.snowflake.ingest.utils.SFException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One scheduled task that walks every open channel, fetches all committed offsets in a single
+// call, and frees the committed batches. It ticks every purge_rate while anything is buffered or
+// awaited, and backs off towards purge_rate_idle when all channels are caught up.
+public class SnowpipeRestPurger {
+    private final ScheduledExecutorService scheduler;
+    private final SnowpipeRestChannelRegistry channels;
+    private final SnowflakeStreamingIngestClient client;
+    private final long purge_rate;
+    private final long purge_rate_idle;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledFuture<?> next_tick;
+    private volatile long delay;
+    private long next_tick_at;
+
+    public SnowpipeRestPurger(SnowpipeRestChannelRegistry channels, SnowflakeStreamingIngestClient client,
+                              long purge_rate, long purge_rate_idle, ThreadFactory thread_factory) {
+        this.channels = channels;
+        this.client = client;
+        this.purge_rate = purge_rate;
+        this.purge_rate_idle = Math.max(purge_rate, purge_rate_idle);
+        this.delay = purge_rate;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(thread_factory);
+    }
+
+    public void start() {
+        schedule(this.purge_rate);
+    }
+
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    // Called when rows are inserted, so an idle purger does not leave them waiting a full idle period
+    public void wake() {
+        if (this.delay <= this.purge_rate)
+            return;
+        this.lock.lock();
+        try {
+            this.delay = this.purge_rate;
+            if (this.next_tick_at - System.currentTimeMillis() > this.purge_rate && this.next_tick.cancel(false))
+                schedule(this.purge_rate);
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void schedule(long millis) {
+        this.lock.lock();
+        try {
+            if (this.scheduler.isShutdown())
+                return;
+            this.next_tick_at = System.currentTimeMillis() + millis;
+            this.next_tick = this.scheduler.schedule(this::tick, millis, TimeUnit.MILLISECONDS);
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void tick() {
+        boolean busy = false;
+        try {
+            busy = purge();
+        }
+        catch (Exception e) {
+            SnowpipeRestEngine.logger.warn("Purge failed", e);
+            busy = true;
+        }
+        finally {
+            this.lock.lock();
+            try {
+                this.delay = busy ? this.purge_rate : Math.min(this.delay * 2, this.purge_rate_idle);
+            }
+            finally {
+                this.lock.unlock();
+            }
+            schedule(this.delay);
+        }
+    }
+
+    // Returns whether any channel still has buffered batches or commit waiters
+    boolean purge() {
+        List<SnowpipeRestChannelState> open = new ArrayList<SnowpipeRestChannelState>();
+        List<SnowflakeStreamingIngestChannel> open_channels = new ArrayList<SnowflakeStreamingIngestChannel>();
+        for (SnowpipeRestTableState table : this.channels.all()) {
+            if (!table.opened)
+                continue;
+            for (SnowpipeRestChannelState state : table.channels) {
+                SnowflakeStreamingIngestChannel channel = state.channel;
+                if (null != channel && channel.isValid()) {
+                    open.add(state);
+                    open_channels.add(channel);
+                }
+            }
+        }
+        if (open.isEmpty())
+            return false;
+
+        Map<String,String> committed = null;
+        try {
+            committed = this.client.getLatestCommittedOffsetTokens(open_channels);
+        }
+        catch (SFException e) {
+            // A channel was invalidated since it was listed; fall back to asking each channel
+            SnowpipeRestEngine.logger.info(String.format("Batched offset lookup failed, asking each channel: %s", e.getMessage()));
+        }
+        boolean busy = false;
+        for (int i = 0; i < open.size(); i++) {
+            SnowpipeRestChannelState state = open.get(i);
+            SnowflakeStreamingIngestChannel channel = open_channels.get(i);
+            try {
+                state.committed(null != committed ? committed.get(channel.getFullyQualifiedName()) : channel.getLatestCommittedOffsetToken());
+            }
+            catch (SFException e) {
+                SnowpipeRestEngine.logger.info(String.format("Unable to get committed offset for %s: %s", state.key, e.getMessage()));
+            }
+            busy |= !state.buffer.isEmpty() || state.watcher.hasWaiters();
+        }
+        return busy;
+    }
+}
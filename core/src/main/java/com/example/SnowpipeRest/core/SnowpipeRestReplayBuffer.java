@@ -0,0 +1,86 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Batches a channel has sent but Snowflake has not yet committed, ordered by offset token.
+// Truncating to a committed offset only touches the batches it frees. The buffer is bounded in
+// bytes: space is reserved from its budget before a batch is inserted, and a full buffer makes the caller wait.
+public class SnowpipeRestReplayBuffer {
+    private final ConcurrentSkipListMap<Long, SnowpipeRestBatch> batches = new ConcurrentSkipListMap<Long, SnowpipeRestBatch>();
+    private final AtomicLong rows = new AtomicLong(0);
+    private final SnowpipeRestMemoryBudget budget;
+
+    public SnowpipeRestReplayBuffer(SnowpipeRestMemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    // Waits up to timeout_ms for room for a batch of the given size
+    public void reserve(long n, long timeout_ms) {
+        this.budget.acquire(n, timeout_ms);
+    }
+
+    // Gives back space reserved for a batch that was never added
+    public void release(long n) {
+        this.budget.release(n);
+    }
+
+    // Adds a batch whose bytes have already been reserved
+    public void put(long token, SnowpipeRestBatch batch) {
+        this.batches.put(token, batch);
+        this.rows.addAndGet(batch.size());
+    }
+
+    // Adds a batch recovered from the write-ahead log, whether or not it fits
+    public void restore(long token, SnowpipeRestBatch batch) {
+        this.budget.force(batch.getBytes());
+        put(token, batch);
+    }
+
+    // Takes out a batch that was never inserted; returns whether it was there
+    public boolean remove(long token) {
+        SnowpipeRestBatch batch = this.batches.remove(token);
+        if (null == batch)
+            return false;
+        this.rows.addAndGet(-batch.size());
+        batch.releaseAdmission();
+        release(batch.getBytes());
+        return true;
+    }
+
+    // Drops every batch at or below the committed offset; returns how many were dropped
+    public int truncate(long committed) {
+        NavigableMap<Long, SnowpipeRestBatch> head = this.batches.headMap(committed, true);
+        int n = 0;
+        long freed = 0;
+        for (Map.Entry<Long, SnowpipeRestBatch> e = head.pollFirstEntry(); null != e; e = head.pollFirstEntry()) {
+            SnowpipeRestBatch batch = e.getValue();
+            freed += batch.getBytes();
+            this.rows.addAndGet(-batch.size());
+            batch.releaseAdmission();
+            n++;
+        }
+        if (n > 0)
+            release(freed);
+        return n;
+    }
+
+    // Batches in offset token order
+    public NavigableMap<Long, SnowpipeRestBatch> entries() {
+        return this.batches;
+    }
+
+    public boolean isEmpty() {
+        return this.batches.isEmpty();
+    }
+
+    public long getBytes() {
+        return this.budget.getUsed();
+    }
+
+    public long getRows() {
+        return this.rows.get();
+    }
+}
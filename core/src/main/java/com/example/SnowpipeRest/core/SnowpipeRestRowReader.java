@@ -0,0 +1,102 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+// Streams the rows of a JSON array body, or of a newline-delimited JSON (NDJSON) body with one
+// object per line, materializing each row exactly once
+public class SnowpipeRestRowReader implements SnowpipeRestRowSource {
+    private static final String PARSE_ERROR = "Unable to parse body as list of JSON strings.";
+    private static final String NDJSON_PARSE_ERROR = "Unable to parse body as newline-delimited JSON objects (line %d).";
+
+    private final JsonParser parser;
+    private final ObjectReader rowReader;
+    private final boolean ndjson;
+    private boolean done = false;
+    private long last_row_bytes = 0;
+
+    public SnowpipeRestRowReader(ObjectMapper objectMapper, InputStream body) {
+        this(objectMapper, body, false);
+    }
+
+    public SnowpipeRestRowReader(ObjectMapper objectMapper, InputStream body, boolean ndjson) {
+        this(objectMapper, body, ndjson, false);
+    }
+
+    // With exact_decimals, numbers with a fraction or exponent are read as BigDecimal rather than double
+    public SnowpipeRestRowReader(ObjectMapper objectMapper, InputStream body, boolean ndjson, boolean exact_decimals) {
+        ObjectReader reader = objectMapper.readerFor(new TypeReference<Map<String,Object>>() {});
+        this.rowReader = exact_decimals ? reader.with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS) : reader;
+        this.ndjson = ndjson;
+        try {
+            this.parser = objectMapper.createParser(body);
+            if (!ndjson && JsonToken.START_ARRAY != this.parser.nextToken())
+                throw new SnowpipeRestJsonParseException(PARSE_ERROR);
+        }
+        catch (IOException e) {
+            throw readError(e, new SnowpipeRestJsonParseException(PARSE_ERROR));
+        }
+    }
+
+    // Returns the next row, or null once the closing bracket (or the end of an NDJSON body) has been read
+    @Override
+    public Map<String,Object> next() {
+        if (this.done)
+            return null;
+        try {
+            JsonToken token = this.parser.nextToken();
+            if ((this.ndjson && null == token) || (!this.ndjson && JsonToken.END_ARRAY == token)) {
+                this.done = true;
+                return null;
+            }
+            if (JsonToken.START_OBJECT != token)
+                throw parseError();
+            long start = this.parser.currentTokenLocation().getByteOffset();
+            Map<String,Object> row = this.rowReader.readValue(this.parser);
+            this.last_row_bytes = Math.max(0, this.parser.currentLocation().getByteOffset() - start);
+            return row;
+        }
+        catch (IOException e) {
+            throw readError(e, parseError());
+        }
+    }
+
+    // Jackson wraps whatever the body stream throws, so a size limit hit while reading is dug back out
+    private static SnowpipeRestException readError(IOException e, SnowpipeRestException parse_error) {
+        for (Throwable t = e; null != t; t = t.getCause()) {
+            if (t instanceof SnowpipeRestPayloadTooLargeException)
+                return (SnowpipeRestPayloadTooLargeException)t;
+        }
+        return parse_error;
+    }
+
+    private SnowpipeRestJsonParseException parseError() {
+        if (this.ndjson)
+            return new SnowpipeRestJsonParseException(String.format(NDJSON_PARSE_ERROR, this.parser.currentLocation().getLineNr()));
+        return new SnowpipeRestJsonParseException(PARSE_ERROR);
+    }
+
+    // Size in the body of the row last returned by next()
+    @Override
+    public long getLastRowBytes() {
+        return this.last_row_bytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.parser.close();
+        }
+        catch (IOException e) {
+            SnowpipeRestEngine.logger.info(String.format("Unable to close parser: %s", e.getMessage()));
+        }
+    }
+}
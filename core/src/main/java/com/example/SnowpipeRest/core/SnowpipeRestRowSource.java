@@ -0,0 +1,16 @@
+package com.example.SnowpipeRest.core;
+
+import java.io.Closeable;
+import java.util.Map;
+
+// Rows decoded from a request body, one at a time, in the form insertRows takes
+public interface SnowpipeRestRowSource extends Closeable {
+    // Returns the next row, or null at the end of the body
+    Map<String,Object> next();
+
+    // Size in the body of the row last returned by next()
+    long getLastRowBytes();
+
+    // Does not throw
+    void close();
+}
@@ -0,0 +1,292 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.Map;
+import java.util.UUID;
+
+// Settings of the ingest engine, named as the snowpiperest.* properties of the Spring Boot
+// service. The Lambda reads them from the same SNOWPIPEREST_* environment variables.
+// The Snowpipe Streaming SDK parameters are left to the SDK's defaults unless set above 0.
+public class SnowpipeRestSettings {
+    int batch_size = 144;
+    long purge_rate = 1000;
+    long purge_rate_idle = 10000;
+    boolean disable_buffering = false;
+    long max_buffer_bytes = 268435456L;
+    long buffer_wait = 10000;
+    long max_linger_ms = 0;
+    int max_batch_rows = 10000;
+    long max_batch_bytes = 16777216L;
+    boolean typed_rows = false;
+    long global_budget_bytes = 0;
+    long table_budget_bytes = 0;
+    String admission_mode = ADMISSION_BLOCK;
+    long admission_wait = 5000;
+    long retry_after = 1;
+    String instance_id = UUID.randomUUID().toString();
+    String wal_dir = "";
+    int wal_segment_bytes = 67108864;
+    boolean wal_sync = false;
+    boolean pipelined_dispatch = true;
+    boolean virtual_threads = true;
+    int channels_per_table = 1;
+    String channel_routing = SnowpipeRestChannelRouter.ROUND_ROBIN;
+    String partition_key = "";
+    long replay_rate = 0;
+    int recovery_attempts = 5;
+    long recovery_backoff = 100;
+    long recovery_wait = 10000;
+    int insert_throttle_threshold_in_percentage = -1;
+    long max_client_lag = -1;
+    long max_channel_size_in_bytes = -1;
+    long max_chunk_size_in_bytes = -1;
+    long io_time_cpu_ratio = -1;
+
+    public static final String ADMISSION_BLOCK = "block";
+    public static final String ADMISSION_REJECT = "reject";
+
+    public SnowpipeRestSettings() {
+    }
+
+    // Settings from SNOWPIPEREST_* variables, e.g. SNOWPIPEREST_BATCH_SIZE; unset ones keep their defaults
+    public static SnowpipeRestSettings fromEnvironment(Map<String,String> env) {
+        SnowpipeRestSettings s = new SnowpipeRestSettings();
+        s.batch_size = (int)getLong(env, "batch_size", s.batch_size);
+        s.purge_rate = getLong(env, "purge_rate", s.purge_rate);
+        s.purge_rate_idle = getLong(env, "purge_rate_idle", s.purge_rate_idle);
+        s.disable_buffering = getLong(env, "disable_buffering", 0) != 0;
+        s.max_buffer_bytes = getLong(env, "max_buffer_bytes", s.max_buffer_bytes);
+        s.buffer_wait = getLong(env, "buffer_wait", s.buffer_wait);
+        s.max_linger_ms = getLong(env, "max_linger_ms", s.max_linger_ms);
+        s.max_batch_rows = (int)getLong(env, "max_batch_rows", s.max_batch_rows);
+        s.max_batch_bytes = getLong(env, "max_batch_bytes", s.max_batch_bytes);
+        s.typed_rows = getLong(env, "typed_rows", 0) != 0;
+        s.global_budget_bytes = getLong(env, "global_budget_bytes", s.global_budget_bytes);
+        s.table_budget_bytes = getLong(env, "table_budget_bytes", s.table_budget_bytes);
+        s.admission_mode = getString(env, "admission_mode", s.admission_mode);
+        s.admission_wait = getLong(env, "admission_wait", s.admission_wait);
+        s.retry_after = getLong(env, "retry_after", s.retry_after);
+        s.instance_id = getString(env, "instance_id", s.instance_id);
+        s.wal_dir = getString(env, "wal_dir", s.wal_dir);
+        s.wal_segment_bytes = (int)getLong(env, "wal_segment_bytes", s.wal_segment_bytes);
+        s.wal_sync = getLong(env, "wal_sync", 0) != 0;
+        s.pipelined_dispatch = getLong(env, "pipelined_dispatch", 1) != 0;
+        s.virtual_threads = Boolean.parseBoolean(getString(env, "virtual_threads", String.valueOf(s.virtual_threads)));
+        s.channels_per_table = (int)getLong(env, "channels_per_table", s.channels_per_table);
+        s.channel_routing = getString(env, "channel_routing", s.channel_routing);
+        s.partition_key = getString(env, "partition_key", s.partition_key);
+        s.replay_rate = getLong(env, "replay_rate", s.replay_rate);
+        s.recovery_attempts = (int)getLong(env, "recovery_attempts", s.recovery_attempts);
+        s.recovery_backoff = getLong(env, "recovery_backoff", s.recovery_backoff);
+        s.recovery_wait = getLong(env, "recovery_wait", s.recovery_wait);
+        s.insert_throttle_threshold_in_percentage = (int)getLong(env, "insert_throttle_threshold_in_percentage", s.insert_throttle_threshold_in_percentage);
+        s.max_client_lag = getLong(env, "max_client_lag", s.max_client_lag);
+        s.max_channel_size_in_bytes = getLong(env, "max_channel_size_in_bytes", s.max_channel_size_in_bytes);
+        s.max_chunk_size_in_bytes = getLong(env, "max_chunk_size_in_bytes", s.max_chunk_size_in_bytes);
+        s.io_time_cpu_ratio = getLong(env, "io_time_cpu_ratio", s.io_time_cpu_ratio);
+        return s;
+    }
+
+    private static String getString(Map<String,String> env, String name, String dflt) {
+        String value = env.get("SNOWPIPEREST_" + name.toUpperCase());
+        return (null == value || value.isEmpty()) ? dflt : value;
+    }
+
+    private static long getLong(Map<String,String> env, String name, long dflt) {
+        String value = getString(env, name, null);
+        if (null == value)
+            return dflt;
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("SNOWPIPEREST_%s must be a number: %s", name.toUpperCase(), value));
+        }
+    }
+
+    // Rows per insertRows call (0 for one batch per request)
+    public SnowpipeRestSettings setBatch_size(int batch_size) {
+        this.batch_size = batch_size;
+        return this;
+    }
+
+    // Milliseconds between committed offset checks while anything is buffered or awaited
+    public SnowpipeRestSettings setPurge_rate(long purge_rate) {
+        this.purge_rate = purge_rate;
+        return this;
+    }
+
+    // Longest interval between checks once every channel is caught up
+    public SnowpipeRestSettings setPurge_rate_idle(long purge_rate_idle) {
+        this.purge_rate_idle = purge_rate_idle;
+        return this;
+    }
+
+    // Without the replay buffer, rows not yet committed are lost when a channel is invalidated
+    public SnowpipeRestSettings setDisable_buffering(boolean disable_buffering) {
+        this.disable_buffering = disable_buffering;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_buffer_bytes(long max_buffer_bytes) {
+        this.max_buffer_bytes = max_buffer_bytes;
+        return this;
+    }
+
+    public SnowpipeRestSettings setBuffer_wait(long buffer_wait) {
+        this.buffer_wait = buffer_wait;
+        return this;
+    }
+
+    // Above 0, small requests to a table are coalesced into shared batches for up to this long
+    public SnowpipeRestSettings setMax_linger_ms(long max_linger_ms) {
+        this.max_linger_ms = max_linger_ms;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_batch_rows(int max_batch_rows) {
+        this.max_batch_rows = max_batch_rows;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_batch_bytes(long max_batch_bytes) {
+        this.max_batch_bytes = max_batch_bytes;
+        return this;
+    }
+
+    // Convert rows by the table's schema before they reach the SDK
+    public SnowpipeRestSettings setTyped_rows(boolean typed_rows) {
+        this.typed_rows = typed_rows;
+        return this;
+    }
+
+    // 0 for half the heap
+    public SnowpipeRestSettings setGlobal_budget_bytes(long global_budget_bytes) {
+        this.global_budget_bytes = global_budget_bytes;
+        return this;
+    }
+
+    public SnowpipeRestSettings setTable_budget_bytes(long table_budget_bytes) {
+        this.table_budget_bytes = table_budget_bytes;
+        return this;
+    }
+
+    // block or reject
+    public SnowpipeRestSettings setAdmission_mode(String admission_mode) {
+        this.admission_mode = admission_mode;
+        return this;
+    }
+
+    public SnowpipeRestSettings setAdmission_wait(long admission_wait) {
+        this.admission_wait = admission_wait;
+        return this;
+    }
+
+    public SnowpipeRestSettings setRetry_after(long retry_after) {
+        this.retry_after = retry_after;
+        return this;
+    }
+
+    // Part of the client and channel names, so it must be unique to the running instance
+    public SnowpipeRestSettings setInstance_id(String instance_id) {
+        this.instance_id = instance_id;
+        return this;
+    }
+
+    // Empty for no write-ahead log
+    public SnowpipeRestSettings setWal_dir(String wal_dir) {
+        this.wal_dir = wal_dir;
+        return this;
+    }
+
+    public SnowpipeRestSettings setWal_segment_bytes(int wal_segment_bytes) {
+        this.wal_segment_bytes = wal_segment_bytes;
+        return this;
+    }
+
+    public SnowpipeRestSettings setWal_sync(boolean wal_sync) {
+        this.wal_sync = wal_sync;
+        return this;
+    }
+
+    public SnowpipeRestSettings setPipelined_dispatch(boolean pipelined_dispatch) {
+        this.pipelined_dispatch = pipelined_dispatch;
+        return this;
+    }
+
+    public SnowpipeRestSettings setVirtual_threads(boolean virtual_threads) {
+        this.virtual_threads = virtual_threads;
+        return this;
+    }
+
+    public SnowpipeRestSettings setChannels_per_table(int channels_per_table) {
+        this.channels_per_table = channels_per_table;
+        return this;
+    }
+
+    public SnowpipeRestSettings setChannel_routing(String channel_routing) {
+        this.channel_routing = channel_routing;
+        return this;
+    }
+
+    public SnowpipeRestSettings setPartition_key(String partition_key) {
+        this.partition_key = partition_key;
+        return this;
+    }
+
+    // Rows a second a recovering channel replays at (0 for no limit)
+    public SnowpipeRestSettings setReplay_rate(long replay_rate) {
+        this.replay_rate = replay_rate;
+        return this;
+    }
+
+    // Reopen and replay attempts before a recovery gives up until the next insert
+    public SnowpipeRestSettings setRecovery_attempts(int recovery_attempts) {
+        this.recovery_attempts = recovery_attempts;
+        return this;
+    }
+
+    // Milliseconds before the second attempt, doubling for each one after, with jitter
+    public SnowpipeRestSettings setRecovery_backoff(long recovery_backoff) {
+        this.recovery_backoff = recovery_backoff;
+        return this;
+    }
+
+    // How long an insert queued behind a recovery waits before failing with 503
+    public SnowpipeRestSettings setRecovery_wait(long recovery_wait) {
+        this.recovery_wait = recovery_wait;
+        return this;
+    }
+
+    public SnowpipeRestSettings setInsert_throttle_threshold_in_percentage(int insert_throttle_threshold_in_percentage) {
+        this.insert_throttle_threshold_in_percentage = insert_throttle_threshold_in_percentage;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_client_lag(long max_client_lag) {
+        this.max_client_lag = max_client_lag;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_channel_size_in_bytes(long max_channel_size_in_bytes) {
+        this.max_channel_size_in_bytes = max_channel_size_in_bytes;
+        return this;
+    }
+
+    public SnowpipeRestSettings setMax_chunk_size_in_bytes(long max_chunk_size_in_bytes) {
+        this.max_chunk_size_in_bytes = max_chunk_size_in_bytes;
+        return this;
+    }
+
+    public SnowpipeRestSettings setIo_time_cpu_ratio(long io_time_cpu_ratio) {
+        this.io_time_cpu_ratio = io_time_cpu_ratio;
+        return this;
+    }
+
+    public String getInstance_id() {
+        return this.instance_id;
+    }
+
+    public boolean isTyped_rows() {
+        return this.typed_rows;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.SnowpipeRest.core;
+
+public class SnowpipeRestTableNotFoundException extends SnowpipeRestException {
+    public SnowpipeRestTableNotFoundException(String message) {
+        super(NOT_FOUND, message);
+    }
+}
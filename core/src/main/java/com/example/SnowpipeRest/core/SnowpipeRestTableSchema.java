@@ -0,0 +1,267 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.ColumnProperties;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A table's columns as reported by its channel, used to convert rows before they reach the SDK.
+// Keys are matched to columns once per distinct key, numbers and ISO-8601 date/time strings are
+// parsed to the column's type, and rows the SDK would reject for a missing, extra, null or
+// out-of-range value are rejected here instead. Values that cannot be converted here are left
+// as they are for the SDK, which accepts more formats.
+public class SnowpipeRestTableSchema {
+    private final Map<String, Column> columns = new HashMap<String, Column>();
+    // Row key to column, or to NO_COLUMN for keys that match no column
+    private final Map<String, Column> resolved = new ConcurrentHashMap<String, Column>();
+    private final int required;
+    private static final int MAX_RESOLVED = 10000;
+    private static final Column NO_COLUMN = new Column("", "", "", null, null, null, true);
+
+    static class Column {
+        final String name;
+        // Key the SDK maps back to this column: the bare name if it is upper-case, otherwise quoted
+        // with any quotes in it doubled
+        final String key;
+        final String type;
+        final String logical_type;
+        final Integer precision;
+        final Integer scale;
+        final Integer length;
+        final boolean nullable;
+
+        Column(String name, String type, String logical_type, Integer precision, Integer scale, Integer length, boolean nullable) {
+            this.name = name;
+            this.key = (name.equals(name.toUpperCase()) && !name.contains("\"")) ? name : "\"" + name.replace("\"", "\"\"") + "\"";
+            this.type = type;
+            this.logical_type = (null == logical_type) ? "" : logical_type.toUpperCase();
+            this.precision = precision;
+            this.scale = scale;
+            this.length = length;
+            this.nullable = nullable;
+        }
+    }
+
+    // Thrown for a row that cannot be inserted; the message is reported as the row's error
+    static class RowException extends Exception {
+        RowException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    public SnowpipeRestTableSchema(Map<String, ColumnProperties> table_schema) {
+        this(columns(table_schema));
+    }
+
+    // Only the SDK can make ColumnProperties, so tests build the columns directly
+    SnowpipeRestTableSchema(List<Column> columns) {
+        int n = 0;
+        for (Column c : columns) {
+            this.columns.put(c.name, c);
+            if (!c.nullable)
+                n++;
+        }
+        this.required = n;
+    }
+
+    private static List<Column> columns(Map<String, ColumnProperties> table_schema) {
+        List<Column> columns = new ArrayList<Column>(table_schema.size());
+        for (Map.Entry<String, ColumnProperties> e : table_schema.entrySet()) {
+            ColumnProperties p = e.getValue();
+            columns.add(new Column(unquote(e.getKey()), p.getType(), p.getLogicalType(), p.getPrecision(), p.getScale(), p.getLength(), p.isNullable()));
+        }
+        return columns;
+    }
+
+    public int size() {
+        return this.columns.size();
+    }
+
+    // Whether the table has the same columns, with the same types, as another schema
+    public boolean sameAs(SnowpipeRestTableSchema other) {
+        if (null == other || this.columns.size() != other.columns.size())
+            return false;
+        for (Column c : this.columns.values()) {
+            Column o = other.columns.get(c.name);
+            if (null == o || !Objects.equals(c.type, o.type) || !c.logical_type.equals(o.logical_type)
+                    || !Objects.equals(c.precision, o.precision) || !Objects.equals(c.scale, o.scale)
+                    || !Objects.equals(c.length, o.length) || c.nullable != o.nullable)
+                return false;
+        }
+        return true;
+    }
+
+    // Returns the row keyed and typed for insertRows
+    public Map<String,Object> convert(Map<String,Object> row) throws RowException {
+        Map<String,Object> converted = new HashMap<String,Object>((int)(row.size() / 0.75f) + 1);
+        int required_seen = 0;
+        for (Map.Entry<String,Object> e : row.entrySet()) {
+            Column column = resolve(e.getKey());
+            if (NO_COLUMN == column)
+                throw new RowException(String.format("Extra column: %s", e.getKey()));
+            if (converted.containsKey(column.key))
+                throw new RowException(String.format("Duplicate column: %s", column.name));
+            Object value = e.getValue();
+            if (null == value) {
+                if (!column.nullable)
+                    throw new RowException(String.format("Null value in non-nullable column: %s", column.name));
+            }
+            else {
+                value = convert(column, value);
+            }
+            if (!column.nullable)
+                required_seen++;
+            converted.put(column.key, value);
+        }
+        if (required_seen < this.required) {
+            for (Column c : this.columns.values()) {
+                if (!c.nullable && !converted.containsKey(c.key))
+                    throw new RowException(String.format("Missing non-nullable column: %s", c.name));
+            }
+        }
+        return converted;
+    }
+
+    // Unquoted keys match columns case-insensitively, as unquoted identifiers do in Snowflake
+    private Column resolve(String key) {
+        Column column = this.resolved.get(key);
+        if (null == column) {
+            if (key.length() > 1 && key.startsWith("\"") && key.endsWith("\""))
+                column = this.columns.get(unquote(key));
+            else if (null == (column = this.columns.get(key)))
+                column = this.columns.get(key.toUpperCase());
+            if (null == column)
+                column = NO_COLUMN;
+            // Bounded, so clients sending arbitrary keys cannot grow it without limit
+            if (this.resolved.size() < MAX_RESOLVED)
+                this.resolved.put(key, column);
+        }
+        return column;
+    }
+
+    private static Object convert(Column column, Object value) throws RowException {
+        switch (column.logical_type) {
+            case "FIXED":
+                return toFixed(column, value);
+            case "REAL":
+                if (value instanceof Number n)
+                    return n.doubleValue();
+                if (value instanceof String s) {
+                    try {
+                        return Double.parseDouble(s.trim());
+                    }
+                    catch (NumberFormatException e) {
+                        return value;
+                    }
+                }
+                return value;
+            case "TEXT":
+                if (value instanceof BigDecimal d)
+                    return d.toPlainString();
+                if (value instanceof String s && null != column.length && s.codePointCount(0, s.length()) > column.length)
+                    throw new RowException(String.format("String too long: length=%d characters maxLength=%d characters, column: %s",
+                            s.codePointCount(0, s.length()), column.length, column.name));
+                return value;
+            case "DATE":
+                if (value instanceof String s) {
+                    try {
+                        return LocalDate.parse(s.trim());
+                    }
+                    catch (DateTimeParseException e) {
+                        return value;
+                    }
+                }
+                return value;
+            case "TIME":
+                if (value instanceof String s) {
+                    try {
+                        return LocalTime.parse(s.trim());
+                    }
+                    catch (DateTimeParseException e) {
+                        return value;
+                    }
+                }
+                return value;
+            case "TIMESTAMP_NTZ":
+                if (value instanceof String s) {
+                    try {
+                        return LocalDateTime.parse(s.trim());
+                    }
+                    catch (DateTimeParseException e) {
+                        return value;
+                    }
+                }
+                return value;
+            case "TIMESTAMP_LTZ":
+            case "TIMESTAMP_TZ":
+                // Only strings with an offset; the SDK applies its default time zone to the rest
+                if (value instanceof String s) {
+                    try {
+                        return OffsetDateTime.parse(s.trim());
+                    }
+                    catch (DateTimeParseException e) {
+                        return value;
+                    }
+                }
+                return value;
+            default:
+                return value;
+        }
+    }
+
+    private static Object toFixed(Column column, Object value) throws RowException {
+        int precision = (null == column.precision) ? 38 : column.precision;
+        int scale = (null == column.scale) ? 0 : column.scale;
+        BigDecimal number;
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            number = BigDecimal.valueOf(((Number)value).longValue());
+        else if (value instanceof BigDecimal d)
+            number = d;
+        else if (value instanceof BigInteger i)
+            number = new BigDecimal(i);
+        else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number)value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d))
+                throw new RowException(String.format("Not a valid number: %s, column: %s", value, column.name));
+            number = BigDecimal.valueOf(d);
+        }
+        else if (value instanceof String s) {
+            try {
+                number = new BigDecimal(s.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new RowException(String.format("Not a valid number: %s, column: %s", s, column.name));
+            }
+        }
+        else {
+            return value;
+        }
+        number = number.setScale(scale, RoundingMode.HALF_UP);
+        if (number.precision() - number.scale() > precision - scale)
+            throw new RowException(String.format("Number out of representable exclusive range of (-1e%d..1e%d), column: %s",
+                    precision - scale, precision - scale, column.name));
+        // Integers stay primitive-sized where they fit, which the SDK handles fastest
+        if (0 == scale && number.precision() < 19)
+            return number.longValueExact();
+        return number;
+    }
+
+    // Undoes the quoting of a column's key: "a""b" names the column a"b
+    private static String unquote(String name) {
+        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\""))
+            return name.substring(1, name.length() - 1).replace("\"\"", "\"");
+        return name;
+    }
+}
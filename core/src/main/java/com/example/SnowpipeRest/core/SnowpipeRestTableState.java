@@ -0,0 +1,81 @@
+package com.example.SnowpipeRest.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The channels the service keeps open for one table
+public class SnowpipeRestTableState {
+    final String key;
+    final String database;
+    final String schema;
+    final String table;
+    final SnowpipeRestChannelState[] channels;
+    final SnowpipeRestMemoryBudget budget;
+    final AtomicInteger next_channel = new AtomicInteger(0);
+    final ReentrantLock lock = new ReentrantLock();
+    volatile boolean opened = false;
+    // Set when small requests to this table are coalesced into shared batches
+    volatile SnowpipeRestCoalescer coalescer;
+    // Columns of the table as of the last channel open, when rows are converted by schema
+    volatile SnowpipeRestTableSchema columns;
+    // Metrics of the table's insert path, set when the table is opened
+    volatile IngestMetrics metrics;
+
+    SnowpipeRestTableState(String key, String database, String schema, String table, int num_channels, long max_buffer_bytes,
+                           SnowpipeRestMemoryBudget budget, long retry_after) {
+        this.key = key;
+        this.database = database;
+        this.schema = schema;
+        this.table = table;
+        this.budget = budget;
+        this.channels = new SnowpipeRestChannelState[Math.max(1, num_channels)];
+        for (int i = 0; i < this.channels.length; i++)
+            this.channels[i] = new SnowpipeRestChannelState(this, i, max_buffer_bytes, retry_after);
+    }
+
+    // DATABASE.SCHEMA.TABLE, upper-case
+    public String getKey() {
+        return this.key;
+    }
+
+    public SnowpipeRestMemoryBudget getBudget() {
+        return this.budget;
+    }
+
+    // Rows sent to Snowflake and not yet committed, held for replay
+    public long getBufferedRows() {
+        long rows = 0;
+        for (SnowpipeRestChannelState channel : this.channels)
+            rows += channel.buffer.getRows();
+        return rows;
+    }
+
+    public long getBufferedBytes() {
+        long bytes = 0;
+        for (SnowpipeRestChannelState channel : this.channels)
+            bytes += channel.buffer.getBytes();
+        return bytes;
+    }
+
+    // Batches sent past the last committed offset token. Channels whose committed offset has
+    // not been read yet count as caught up.
+    public long getCommitLag() {
+        long lag = 0;
+        for (SnowpipeRestChannelState channel : this.channels) {
+            long committed = channel.watcher.getCommitted();
+            if (committed >= 0)
+                lag += Math.max(0, channel.offset.get() - committed);
+        }
+        return lag;
+    }
+
+    // Channels being reopened and replayed
+    public int getRecovering() {
+        int n = 0;
+        for (SnowpipeRestChannelState channel : this.channels) {
+            if (null != channel.recovering)
+                n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+// Write-ahead log for one channel's replay buffer. Batches are appended to fixed-size,
+// memory-mapped segment files named after their first token. A segment is deleted once the
+// committed offset passes its last token; whatever is left on startup is replayed.
+//
+// Record layout: int payload length, int CRC32 of the payload, long token, int row count, payload
+// (the rows as a JSON array). The length is written last, so a zero length ends the segment.
+// A row count of -1 marks a record skipped: its request failed, so it is not replayed.
+public class SnowpipeRestWal {
+    private static final int HEADER_BYTES = 20;
+    private static final int SKIPPED = -1;
+
+    // Where a batch lives in the log
+    public static class Record {
+        final Segment segment;
+        final int position;
+        final int length;
+        final long token;
+        final int rows;
+
+        Record(Segment segment, int position, int length, long token, int rows) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.token = token;
+            this.rows = rows;
+        }
+    }
+
+    static class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        final long first_token;
+        volatile long last_token;
+        int position = 0;
+
+        Segment(Path path, MappedByteBuffer buffer, long first_token) {
+            this.path = path;
+            this.buffer = buffer;
+            this.first_token = first_token;
+            this.last_token = first_token;
+        }
+    }
+
+    private final Path dir;
+    private final int segment_bytes;
+    private final boolean sync;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader rowsReader;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+    private volatile Segment current;
+
+    public SnowpipeRestWal(Path dir, int segment_bytes, boolean sync, ObjectMapper objectMapper) {
+        this.dir = dir;
+        this.segment_bytes = segment_bytes;
+        this.sync = sync;
+        this.objectMapper = objectMapper;
+        // Decimals are read back exactly, as they were before they were logged
+        this.rowsReader = objectMapper.readerFor(new TypeReference<List<Map<String,Object>>>() {}).with(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+        try {
+            Files.createDirectories(dir);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Must hold the channel's lock
+    public Record append(long token, List<Map<String,Object>> rows) {
+        byte[] payload;
+        try {
+            payload = this.objectMapper.writeValueAsBytes(rows);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int needed = HEADER_BYTES + payload.length;
+        Segment segment = this.current;
+        if (null == segment || segment.position + needed + 4 > segment.buffer.capacity())
+            segment = roll(token, needed + 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int position = segment.position;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(position + 4, (int)crc.getValue());
+        buffer.putLong(position + 8, token);
+        buffer.putInt(position + 16, rows.size());
+        buffer.put(position + HEADER_BYTES, payload);
+        buffer.putInt(position, payload.length);
+        if (this.sync)
+            buffer.force(position, needed);
+        segment.position += needed;
+        segment.last_token = token;
+        return new Record(segment, position, payload.length, token, rows.size());
+    }
+
+    // Must hold the channel's lock. Marks the record skipped, so a restart does not replay rows
+    // whose request failed and which the client may send again.
+    public void skip(Record record) {
+        MappedByteBuffer buffer = record.segment.buffer;
+        buffer.putInt(record.position + 16, SKIPPED);
+        if (this.sync)
+            buffer.force(record.position + 16, 4);
+    }
+
+    public List<Map<String,Object>> read(Record record) {
+        byte[] payload = new byte[record.length];
+        record.segment.buffer.get(record.position + HEADER_BYTES, payload);
+        try {
+            return this.rowsReader.readValue(payload);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Deletes every segment, other than the one being written, that holds nothing after the committed offset
+    public void truncate(long committed) {
+        for (Segment segment : this.segments.values()) {
+            if (segment == this.current || segment.last_token > committed)
+                break;
+            this.segments.remove(segment.first_token);
+            try {
+                Files.deleteIfExists(segment.path);
+                SnowpipeRestEngine.logger.info(String.format("Deleted WAL segment %s", segment.path));
+            }
+            catch (IOException e) {
+                SnowpipeRestEngine.logger.warn(String.format("Unable to delete WAL segment %s", segment.path), e);
+            }
+        }
+    }
+
+    // Reads back every intact record left by a previous run, in token order. New appends go to a fresh segment.
+    public List<Record> recover() {
+        List<Path> paths = new ArrayList<Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, "*.wal")) {
+            for (Path p : files)
+                paths.add(p);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        paths.sort(null);
+
+        List<Record> records = new ArrayList<Record>();
+        for (Path p : paths) {
+            Segment segment = new Segment(p, map(p, 0), Long.parseLong(p.getFileName().toString().replace(".wal", "")));
+            ByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity())
+                    break;
+                byte[] payload = new byte[length];
+                buffer.get(position + HEADER_BYTES, payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int)crc.getValue() != buffer.getInt(position + 4)) {
+                    SnowpipeRestEngine.logger.warn(String.format("Torn record in WAL segment %s at %d", p, position));
+                    break;
+                }
+                Record record = new Record(segment, position, length, buffer.getLong(position + 8), buffer.getInt(position + 16));
+                if (SKIPPED != record.rows)
+                    records.add(record);
+                segment.last_token = record.token;
+                position += HEADER_BYTES + length;
+            }
+            segment.position = position;
+            this.segments.put(segment.first_token, segment);
+        }
+        SnowpipeRestEngine.logger.info(String.format("Recovered %d batches from %d WAL segments in %s", records.size(), paths.size(), this.dir));
+        return records;
+    }
+
+    private Segment roll(long first_token, int needed) {
+        Path path = this.dir.resolve(String.format("%020d.wal", first_token));
+        Segment segment = new Segment(path, map(path, Math.max(this.segment_bytes, needed)), first_token);
+        this.segments.put(first_token, segment);
+        this.current = segment;
+        return segment;
+    }
+
+    // Maps the whole file, growing a new file to the given size. The mapping outlives the channel.
+    private static MappedByteBuffer map(Path path, int size) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
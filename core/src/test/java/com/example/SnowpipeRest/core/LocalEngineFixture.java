@@ -0,0 +1,89 @@
+package com.example.SnowpipeRest.core;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+// An engine over a local backend whose inserts only commit when a test commits them, so
+// recovery, drain, the write-ahead log and the budgets can be driven one step at a time
+final class LocalEngineFixture implements AutoCloseable {
+    static final String DATABASE = "DB";
+    static final String SCHEMA = "PUBLIC";
+    static final String INSTANCE = "TEST";
+    // Long enough that nothing commits during a test unless it is committed by hand
+    static final long NEVER_MS = 3_600_000L;
+
+    final LocalIngestBackend backend;
+    final SnowpipeRestEngine engine;
+
+    LocalEngineFixture(SnowpipeRestSettings settings) {
+        this(settings, new LocalIngestBackend().setCommit_lag_ms(NEVER_MS));
+    }
+
+    LocalEngineFixture(SnowpipeRestSettings settings, LocalIngestBackend backend) {
+        this.backend = backend;
+        this.engine = new SnowpipeRestEngine(settings, backend, new Properties(), table -> IngestMetrics.NONE);
+    }
+
+    // Purges often and retries recoveries quickly, so tests do not wait on the defaults
+    static SnowpipeRestSettings settings() {
+        return new SnowpipeRestSettings()
+                .setInstance_id(INSTANCE)
+                .setPurge_rate(10)
+                .setPurge_rate_idle(10)
+                .setRecovery_backoff(10);
+    }
+
+    SnowpipeInsertResponse save(String table, String body) {
+        return this.engine.save(DATABASE, SCHEMA, table, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), false, -1);
+    }
+
+    SnowpipeRestTableState table(String table) {
+        return this.engine.open(DATABASE, SCHEMA, table);
+    }
+
+    // The table's channel as the backend sees it; a reopen replaces it
+    LocalIngestChannel channel(String table, int index) {
+        return this.backend.getChannel(String.format("%s.%s.%s.SNOWPIPE_REST_CHANNEL_%s_%d", DATABASE, SCHEMA, table, INSTANCE, index));
+    }
+
+    void invalidate(String table, int index) {
+        this.backend.invalidate(channel(table, index).getFullyQualifiedName());
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.engine.close();
+    }
+
+    // A JSON array of n rows with IDs from first, tagged with the request they belong to
+    static String rows(String request, int first, int n) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < n; i++) {
+            if (i > 0)
+                body.append(',');
+            body.append(String.format("{\"REQUEST\": \"%s\", \"ID\": %d}", request, first + i));
+        }
+        return body.append(']').toString();
+    }
+
+    // The offset tokens 1 to n, as strings
+    static List<String> tokens(int n) {
+        List<String> tokens = new ArrayList<String>();
+        for (int i = 1; i <= n; i++)
+            tokens.add(String.valueOf(i));
+        return tokens;
+    }
+
+    static void await(String what, BooleanSupplier condition, long timeout_ms) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout_ms;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError(String.format("Timed out after %d ms waiting for %s", timeout_ms, what));
+            Thread.sleep(10);
+        }
+    }
+}
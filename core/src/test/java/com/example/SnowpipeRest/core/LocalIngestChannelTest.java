@@ -0,0 +1,57 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.OpenChannelRequest;
+import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
+import net.snowflake.ingest.utils.SFException;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The local channel fails calls the way the SDK's does once it is invalidated or closed
+public class LocalIngestChannelTest {
+    @Test
+    public void invalidatedChannelFailsTheOffsetLookup() throws Exception {
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS);
+        try (SnowflakeStreamingIngestClient client = backend.createClient("TEST", new Properties())) {
+            LocalIngestChannel channel = open(client);
+            channel.insertRows(List.of(Map.<String,Object>of("ID", 1)), "1");
+            backend.commitAll();
+            assertEquals("1", channel.getLatestCommittedOffsetToken());
+
+            channel.invalidate();
+            assertThrows(SFException.class, channel::getLatestCommittedOffsetToken);
+            assertThrows(SFException.class, () -> channel.insertRows(List.of(Map.<String,Object>of("ID", 2)), "2"));
+
+            // The channel that replaces it starts from what was committed
+            assertEquals("1", open(client).getLatestCommittedOffsetToken());
+        }
+    }
+
+    @Test
+    public void closedChannelStillReportsItsOffset() throws Exception {
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS);
+        try (SnowflakeStreamingIngestClient client = backend.createClient("TEST", new Properties())) {
+            LocalIngestChannel channel = open(client);
+            channel.insertRows(List.of(Map.<String,Object>of("ID", 1)), "1");
+            channel.close().get();
+
+            assertEquals("1", channel.getLatestCommittedOffsetToken());
+            assertThrows(SFException.class, () -> channel.insertRows(List.of(Map.<String,Object>of("ID", 2)), "2"));
+        }
+    }
+
+    private static LocalIngestChannel open(SnowflakeStreamingIngestClient client) {
+        return (LocalIngestChannel)client.openChannel(OpenChannelRequest.builder("CHANNEL")
+                .setDBName("DB")
+                .setSchemaName("PUBLIC")
+                .setTableName("EVENTS")
+                .setOnErrorOption(OpenChannelRequest.OnErrorOption.CONTINUE)
+                .build());
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every byte admitted against the memory budgets is given back, whichever way the request fails.
+// Batches still buffered hold their admission until Snowflake commits them, so each test commits
+// everything and waits for the purger before checking the budgets are empty.
+@Timeout(60)
+public class SnowpipeRestBudgetTest {
+    private static final String TABLE = "EVENTS";
+
+    @Test
+    public void parseErrorReleasesBudget() throws Exception {
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings().setBatch_size(2))) {
+            SnowpipeRestException e = assertThrows(SnowpipeRestException.class,
+                    () -> f.save(TABLE, "[{\"ID\": 1}, {\"ID\": 2}, {\"ID\": 3}, {\"ID\": 4}, {\"ID\": "));
+            assertEquals(SnowpipeRestException.BAD_REQUEST, e.getStatus());
+            assertReleased(f);
+        }
+    }
+
+    @Test
+    public void fullBufferReleasesAdmission() throws Exception {
+        // The first batch is let into the empty buffer; the second finds it full and does not wait
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(2).setMax_buffer_bytes(1).setBuffer_wait(0);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            SnowpipeRestException e = assertThrows(SnowpipeRestException.class, () -> f.save(TABLE, LocalEngineFixture.rows("a", 0, 4)));
+            assertEquals(SnowpipeRestException.TOO_MANY_REQUESTS, e.getStatus());
+
+            SnowpipeRestTableState table = f.table(TABLE);
+            assertEquals(2, table.getBufferedRows());
+            assertEquals(table.getBufferedBytes(), table.budget.getUsed());
+            assertReleased(f);
+        }
+    }
+
+    @Test
+    public void globalBudgetRejectionReleasesTableBudget() throws Exception {
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setGlobal_budget_bytes(1)
+                .setAdmission_mode(SnowpipeRestSettings.ADMISSION_REJECT);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 2));
+            SnowpipeRestTableState table = f.table(TABLE);
+            long used = table.budget.getUsed();
+            assertTrue(used > 0);
+
+            // The table budget has no limit and lets the batch in; the global one turns it away
+            SnowpipeRestException e = assertThrows(SnowpipeRestBackpressureException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 2, 2)));
+            assertEquals(SnowpipeRestException.SERVICE_UNAVAILABLE, e.getStatus());
+            assertEquals(used, table.budget.getUsed());
+            assertEquals(used, f.engine.getGlobalBudget().getUsed());
+            assertReleased(f);
+        }
+    }
+
+    @Test
+    public void replayTimeoutReleasesQueuedBatch() throws Exception {
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(1).setReplay_rate(5).setRecovery_wait(50);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 4));
+            SnowpipeRestTableState table = f.table(TABLE);
+            f.invalidate(TABLE, 0);
+
+            SnowpipeRestException e = assertThrows(SnowpipeRestBackpressureException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 4, 1)));
+            assertEquals(SnowpipeRestException.SERVICE_UNAVAILABLE, e.getStatus());
+            // The batch that timed out is gone from the buffer; the four before it wait for the replay
+            assertEquals(4, table.getBufferedRows());
+            LocalEngineFixture.await("recovery to finish", () -> 0 == table.getRecovering(), 5000);
+            assertReleased(f);
+        }
+    }
+
+    @Test
+    public void unbufferedRecoveryReleasesAdmission() throws Exception {
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setDisable_buffering(true);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 2));
+            f.invalidate(TABLE, 0);
+
+            // Sent again under a new token once the channel is reopened
+            SnowpipeInsertResponse resp = f.save(TABLE, LocalEngineFixture.rows("b", 2, 2));
+            assertEquals(2, resp.getNum_succeeded());
+            assertEquals(0, f.table(TABLE).budget.getUsed());
+            assertEquals(0, f.engine.getGlobalBudget().getUsed());
+        }
+    }
+
+    @Test
+    public void unexpectedErrorWaitsForTheBatchInFlight() throws Exception {
+        // The first batch is still being inserted on a worker when the body fails
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS).setInsert_latency_ms(500);
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings().setBatch_size(2), backend)) {
+            SnowpipeRestTableState table = f.table(TABLE);
+            SnowpipeRestRowSource source = new SnowpipeRestRowSource() {
+                private int rows = 0;
+
+                public Map<String,Object> next() {
+                    if (++this.rows > 2)
+                        throw new IllegalStateException("Body failed");
+                    return Map.of("ID", this.rows);
+                }
+
+                public long getLastRowBytes() {
+                    return 10;
+                }
+
+                public void close() {}
+            };
+            assertThrows(IllegalStateException.class, () -> f.engine.saveRows(table, source, -1));
+            assertEquals(2, f.channel(TABLE, 0).getInsertedRows());
+            assertReleased(f);
+        }
+    }
+
+    private static void assertReleased(LocalEngineFixture f) throws InterruptedException {
+        SnowpipeRestTableState table = f.table(TABLE);
+        f.backend.commitAll();
+        LocalEngineFixture.await("budgets to be released",
+                () -> 0 == table.budget.getUsed() && 0 == f.engine.getGlobalBudget().getUsed() && 0 == table.getBufferedBytes(), 5000);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SnowpipeRestChannelRouterTest {
+    private static final long ROW_BYTES = 10;
+
+    @Test
+    public void singleChannelGetsTheWholeBatch() {
+        SnowpipeRestTableState table = table(1);
+        SnowpipeRestBatch batch = batch("a", "b");
+        for (String routing : new String[] {SnowpipeRestChannelRouter.ROUND_ROBIN, SnowpipeRestChannelRouter.LEAST_BUFFERED}) {
+            SnowpipeRestBatch[] routed = new SnowpipeRestChannelRouter(routing, null).route(table, batch);
+            assertEquals(1, routed.length);
+            assertSame(batch, routed[0]);
+        }
+    }
+
+    @Test
+    public void roundRobinRotatesWholeBatches() {
+        SnowpipeRestTableState table = table(3);
+        SnowpipeRestChannelRouter router = new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.ROUND_ROBIN, null);
+        for (int i = 0; i < 6; i++) {
+            SnowpipeRestBatch batch = batch("a", "b", "c");
+            SnowpipeRestBatch[] routed = router.route(table, batch);
+            for (int c = 0; c < 3; c++) {
+                if (c == i % 3)
+                    assertSame(batch, routed[c]);
+                else
+                    assertNull(routed[c]);
+            }
+        }
+    }
+
+    @Test
+    public void leastBufferedPicksTheChannelWithFewestBytes() {
+        SnowpipeRestTableState table = table(3);
+        buffer(table.channels[0], 1, batch("a", "b"));
+        buffer(table.channels[2], 1, batch("a"));
+        SnowpipeRestChannelRouter router = new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.LEAST_BUFFERED, null);
+
+        SnowpipeRestBatch batch = batch("x");
+        SnowpipeRestBatch[] routed = router.route(table, batch);
+        assertNull(routed[0]);
+        assertSame(batch, routed[1]);
+        assertNull(routed[2]);
+
+        // Ties go to the lowest channel
+        buffer(table.channels[1], 1, batch("a"));
+        assertSame(batch, router.route(table, batch)[1]);
+        buffer(table.channels[1], 2, batch("a"));
+        assertSame(batch, router.route(table, batch)[2]);
+    }
+
+    @Test
+    public void partitionKeyKeepsEachValueOnOneChannel() {
+        int n = 4;
+        SnowpipeRestTableState table = table(n);
+        SnowpipeRestChannelRouter router = new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.PARTITION_KEY, "DEVICE");
+        String[] devices = {"d1", "d2", "d3", "d1", "d4", "d2", "d5", "d1"};
+        SnowpipeRestBatch batch = batch(devices);
+
+        SnowpipeRestBatch[] routed = router.route(table, batch);
+        int rows = 0;
+        for (int c = 0; c < n; c++) {
+            if (null == routed[c])
+                continue;
+            for (int i = 0; i < routed[c].size(); i++) {
+                Map<String,Object> row = routed[c].getRows().get(i);
+                // Each row keeps its position in the request, and lands where its key hashes
+                assertSame(batch.getRows().get(routed[c].requestIndex(i)), row);
+                assertEquals(Math.floorMod(row.get("DEVICE").hashCode(), n), c);
+                assertEquals(ROW_BYTES, routed[c].getBytes() / routed[c].size());
+                rows++;
+            }
+        }
+        assertEquals(devices.length, rows);
+    }
+
+    @Test
+    public void partitionKeyMatchesColumnInAnyCase() {
+        int n = 4;
+        SnowpipeRestTableState table = table(n);
+        SnowpipeRestChannelRouter router = new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.PARTITION_KEY, "DEVICE");
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(2);
+        batch.add(row("device", "d3"), 0, ROW_BYTES);
+        // A row without the column has a null key, which always goes to the first channel
+        batch.add(row("OTHER", "d3"), 1, ROW_BYTES);
+
+        SnowpipeRestBatch[] routed = router.route(table, batch);
+        int c = Math.floorMod("d3".hashCode(), n);
+        assertEquals(0, routed[c].requestIndex(0));
+        assertEquals(1, routed[0].requestIndex(routed[0].size() - 1));
+    }
+
+    @Test
+    public void partitionKeyGivesTheRoundingRemainderToTheLastPart() {
+        int n = 4;
+        SnowpipeRestTableState table = table(n);
+        SnowpipeRestChannelRouter router = new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.PARTITION_KEY, "DEVICE");
+        // 31 bytes over 3 rows: each part is charged 10 bytes a row, and one part the byte left over
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(3);
+        batch.add(row("DEVICE", "d1"), 0, 10);
+        batch.add(row("DEVICE", "d2"), 1, 10);
+        batch.add(row("DEVICE", "d3"), 2, 11);
+
+        SnowpipeRestBatch[] routed = router.route(table, batch);
+        long total = 0;
+        int last = -1;
+        for (int c = 0; c < n; c++) {
+            if (null == routed[c])
+                continue;
+            total += routed[c].getBytes();
+            last = c;
+        }
+        assertEquals(batch.getBytes(), total);
+        assertEquals(routed[last].size() * 10L + 1, routed[last].getBytes());
+    }
+
+    @Test
+    public void rejectsUnknownRoutingAndMissingPartitionKey() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowpipeRestChannelRouter("random", null));
+        assertThrows(IllegalArgumentException.class, () -> new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.PARTITION_KEY, null));
+        assertThrows(IllegalArgumentException.class, () -> new SnowpipeRestChannelRouter(SnowpipeRestChannelRouter.PARTITION_KEY, ""));
+    }
+
+    private static SnowpipeRestTableState table(int channels) {
+        return new SnowpipeRestTableState("DB.PUBLIC.EVENTS", "DB", "PUBLIC", "EVENTS", channels, 0, null, 1);
+    }
+
+    private static void buffer(SnowpipeRestChannelState channel, long token, SnowpipeRestBatch batch) {
+        channel.buffer.reserve(batch.getBytes(), 0);
+        channel.buffer.put(token, batch);
+    }
+
+    // A batch of one row per device, each ROW_BYTES long
+    private static SnowpipeRestBatch batch(String... devices) {
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(devices.length);
+        for (int i = 0; i < devices.length; i++)
+            batch.add(row("DEVICE", devices[i]), i, ROW_BYTES);
+        return batch;
+    }
+
+    private static Map<String,Object> row(String column, String value) {
+        Map<String,Object> row = new LinkedHashMap<String,Object>();
+        row.put(column, value);
+        row.put("VALUE", 1);
+        return row;
+    }
+}
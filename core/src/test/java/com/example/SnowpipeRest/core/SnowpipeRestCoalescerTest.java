@@ -0,0 +1,222 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Shared batches are inserted once full or once they have lingered, and every row keeps the
+// request it came from. Inserts run on the calling thread, so a full batch is inserted by the time submit returns.
+// Through the engine, a shared batch is flushed once it holds 5 rows, so a request of 3 rows and one of 2
+// always share it, whichever arrives first; the linger is long enough never to flush it before then.
+@Timeout(60)
+public class SnowpipeRestCoalescerTest {
+    private static final long ROW_BYTES = 10;
+    private static final String TABLE = "EVENTS";
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<SnowpipeRestBatch> inserted = new CopyOnWriteArrayList<SnowpipeRestBatch>();
+
+    @AfterEach
+    public void stopTimer() {
+        this.timer.shutdownNow();
+    }
+
+    @Test
+    public void fullBatchKeepsEachRowsRequest() throws Exception {
+        SnowpipeRestCoalescer coalescer = coalescer(30000, 5, 0, this.inserted::add);
+        SnowpipeInsertResponse a = new SnowpipeInsertResponse(0, 0, 0);
+        SnowpipeInsertResponse b = new SnowpipeInsertResponse(0, 0, 0);
+
+        CompletableFuture<Void> done_a = coalescer.submit(batch(3), a);
+        assertFalse(done_a.isDone());
+        CompletableFuture<Void> done_b = coalescer.submit(batch(2), b);
+        assertSame(done_a, done_b);
+        done_b.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, this.inserted.size());
+        SnowpipeRestBatch shared = this.inserted.get(0);
+        assertEquals(5, shared.size());
+        assertEquals(5 * ROW_BYTES, shared.getBytes());
+        int[] index = {0, 1, 2, 0, 1};
+        SnowpipeInsertResponse[] response = {a, a, a, b, b};
+        for (int i = 0; i < shared.size(); i++) {
+            assertEquals(index[i], shared.requestIndex(i));
+            assertSame(response[i], shared.response(i, null));
+        }
+    }
+
+    @Test
+    public void flushesOnceTheBytesAreReached() throws Exception {
+        SnowpipeRestCoalescer coalescer = coalescer(30000, 0, 4 * ROW_BYTES, this.inserted::add);
+        CompletableFuture<Void> first = coalescer.submit(batch(3), new SnowpipeInsertResponse(0, 0, 0));
+        coalescer.submit(batch(1), new SnowpipeInsertResponse(0, 0, 0)).get(5, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+
+        // The next request starts a new shared batch
+        CompletableFuture<Void> next = coalescer.submit(batch(1), new SnowpipeInsertResponse(0, 0, 0));
+        assertFalse(next.isDone());
+        assertEquals(1, this.inserted.size());
+        assertEquals(4, this.inserted.get(0).size());
+    }
+
+    @Test
+    public void flushesAfterLingering() throws Exception {
+        SnowpipeRestCoalescer coalescer = coalescer(20, 100, 0, this.inserted::add);
+        coalescer.submit(batch(2), new SnowpipeInsertResponse(0, 0, 0)).get(5, TimeUnit.SECONDS);
+        assertEquals(1, this.inserted.size());
+        assertEquals(2, this.inserted.get(0).size());
+    }
+
+    @Test
+    public void admissionMovesToTheSharedBatch() throws Exception {
+        SnowpipeRestMemoryBudget budget = new SnowpipeRestMemoryBudget("table", 0, null, SnowpipeRestException.TOO_MANY_REQUESTS, 1);
+        SnowpipeRestCoalescer coalescer = coalescer(30000, 2, 0, this.inserted::add);
+        SnowpipeRestBatch batch = batch(2);
+        budget.acquire(batch.getBytes(), 0);
+        batch.admitted = budget;
+
+        coalescer.submit(batch, new SnowpipeInsertResponse(0, 0, 0)).get(5, TimeUnit.SECONDS);
+        assertNull(batch.admitted);
+        SnowpipeRestBatch shared = this.inserted.get(0);
+        assertSame(budget, shared.admitted);
+        shared.releaseAdmission();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void failedInsertFailsEveryRequest() {
+        SnowpipeRestCoalescer coalescer = coalescer(30000, 5, 0, batch -> {
+            throw new SnowpipeRestBackpressureException(SnowpipeRestException.TOO_MANY_REQUESTS, "Replay buffer full", 1);
+        });
+        CompletableFuture<Void> a = coalescer.submit(batch(3), new SnowpipeInsertResponse(0, 0, 0));
+        CompletableFuture<Void> b = coalescer.submit(batch(2), new SnowpipeInsertResponse(0, 0, 0));
+        for (CompletableFuture<Void> done : List.of(a, b)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SnowpipeRestBackpressureException, String.valueOf(e.getCause()));
+        }
+    }
+
+    private static SnowpipeRestSettings coalescing() {
+        return LocalEngineFixture.settings().setMax_linger_ms(30000).setMax_batch_rows(5);
+    }
+
+    @Test
+    public void rowErrorsGoBackToTheirRequest() throws Exception {
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS).setRow_error_rate(1.0);
+        try (LocalEngineFixture f = new LocalEngineFixture(coalescing(), backend)) {
+            CompletableFuture<SnowpipeInsertResponse> a = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("a", 0, 3)));
+            CompletableFuture<SnowpipeInsertResponse> b = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("b", 0, 2)));
+
+            assertErrors(a.get(), "a", 3);
+            assertErrors(b.get(), "b", 2);
+            assertEquals(List.of("1"), f.channel(TABLE, 0).getUncommittedTokens());
+        }
+    }
+
+    @Test
+    public void coalescedRequestsAwaitTheSharedCommit() throws Exception {
+        try (LocalEngineFixture f = new LocalEngineFixture(coalescing())) {
+            CompletableFuture<SnowpipeInsertResponse> a = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("a", 0, 3)));
+            CompletableFuture<SnowpipeInsertResponse> b = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("b", 0, 2)));
+            SnowpipeInsertResponse resp_a = a.get();
+            SnowpipeInsertResponse resp_b = b.get();
+
+            assertCounts(resp_a, 3, 3, 0);
+            assertCounts(resp_b, 2, 2, 0);
+            // One insert, under one token, for both requests
+            assertEquals(List.of("1"), f.channel(TABLE, 0).getUncommittedTokens());
+
+            f.backend.commitAll();
+            f.engine.awaitCommit(resp_a).get(5, TimeUnit.SECONDS);
+            f.engine.awaitCommit(resp_b).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void failedSharedInsertFailsEveryRequest() throws Exception {
+        // The first shared batch is let into the empty buffer; the second finds it full
+        SnowpipeRestSettings settings = coalescing().setMax_buffer_bytes(1).setBuffer_wait(0);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            CompletableFuture<SnowpipeInsertResponse> a = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("a", 0, 3)));
+            CompletableFuture<SnowpipeInsertResponse> b = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("b", 0, 2)));
+            a.get();
+            b.get();
+            SnowpipeRestTableState table = f.table(TABLE);
+            long used = table.budget.getUsed();
+
+            CompletableFuture<SnowpipeInsertResponse> c = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("c", 0, 3)));
+            CompletableFuture<SnowpipeInsertResponse> d = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("d", 0, 2)));
+            assertFailsWith(c, SnowpipeRestException.TOO_MANY_REQUESTS);
+            assertFailsWith(d, SnowpipeRestException.TOO_MANY_REQUESTS);
+
+            // The failed batch's admission was given back; the buffered one keeps its own
+            assertEquals(used, table.budget.getUsed());
+            assertEquals(5, table.getBufferedRows());
+        }
+    }
+
+    private SnowpipeRestCoalescer coalescer(long max_linger_ms, int max_batch_rows, long max_batch_bytes, Consumer<SnowpipeRestBatch> insert) {
+        return new SnowpipeRestCoalescer("DB.PUBLIC.EVENTS", max_linger_ms, max_batch_rows, max_batch_bytes, insert, this.timer, Runnable::run);
+    }
+
+    private static SnowpipeRestBatch batch(int rows) {
+        SnowpipeRestBatch batch = new SnowpipeRestBatch(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String,Object> row = new LinkedHashMap<String,Object>();
+            row.put("ID", i);
+            batch.add(row, i, ROW_BYTES);
+        }
+        return batch;
+    }
+
+    private static void assertErrors(SnowpipeInsertResponse resp, String request, int rows) {
+        assertCounts(resp, rows, 0, rows);
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (SnowpipeInsertError error : resp.getErrors()) {
+            assertTrue(error.getInput().contains(String.format("\"REQUEST\":\"%s\"", request)), error.toString());
+            indexes.add(error.getRow_index());
+        }
+        indexes.sort(null);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < rows; i++)
+            expected.add(i);
+        assertEquals(expected, indexes);
+    }
+
+    private static void assertCounts(SnowpipeInsertResponse resp, int attempted, int succeeded, int errors) {
+        assertEquals(attempted, resp.getNum_attempted());
+        assertEquals(succeeded, resp.getNum_succeeded());
+        assertEquals(errors, resp.getNum_errors());
+    }
+
+    private static void assertFailsWith(CompletableFuture<SnowpipeInsertResponse> request, int status) throws InterruptedException {
+        try {
+            request.get();
+            fail("request did not fail");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SnowpipeRestException, String.valueOf(e.getCause()));
+            assertEquals(status, ((SnowpipeRestException)e.getCause()).getStatus());
+        }
+    }
+}
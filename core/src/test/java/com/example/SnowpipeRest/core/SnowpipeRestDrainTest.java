@@ -0,0 +1,61 @@
+package com.example.SnowpipeRest.core;
+
+import net.snowflake.ingest.streaming.OpenChannelRequest;
+import net.snowflake.ingest.utils.ErrorCode;
+import net.snowflake.ingest.utils.SFException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Draining turns new requests away and closes the channels, which commits what they hold. A table
+// that fails to open part way does not leave its other channels open either.
+@Timeout(60)
+public class SnowpipeRestDrainTest {
+    private static final String TABLE = "EVENTS";
+
+    @Test
+    public void drainCommitsWhatTheChannelsHold() throws Exception {
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings().setBatch_size(2))) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 6));
+            SnowpipeRestTableState table = f.table(TABLE);
+            assertEquals(6, table.getBufferedRows());
+
+            assertEquals(0, f.engine.drain(5000));
+            LocalIngestChannel channel = f.channel(TABLE, 0);
+            assertTrue(channel.isClosed());
+            assertEquals(6, channel.getCommittedRows());
+            assertEquals(0, table.getBufferedRows());
+        }
+    }
+
+    @Test
+    public void drainTurnsAwayNewRequests() throws Exception {
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings())) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 3));
+            f.engine.drain(5000);
+            SnowpipeRestException e = assertThrows(SnowpipeRestBackpressureException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 3, 1)));
+            assertEquals(SnowpipeRestException.SERVICE_UNAVAILABLE, e.getStatus());
+        }
+    }
+
+    @Test
+    public void failedOpenClosesTheChannelsItOpened() throws Exception {
+        // The table's second channel cannot be opened
+        LocalIngestBackend backend = new LocalIngestBackend() {
+            @Override
+            LocalIngestChannel open(OpenChannelRequest request) {
+                if (request.getChannelName().endsWith("_1"))
+                    throw new SFException(ErrorCode.INTERNAL_ERROR, "No second channel");
+                return super.open(request);
+            }
+        }.setCommit_lag_ms(LocalEngineFixture.NEVER_MS);
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings().setChannels_per_table(2), backend)) {
+            assertThrows(SnowpipeRestTableNotFoundException.class, () -> f.table(TABLE));
+            assertTrue(f.channel(TABLE, 0).isClosed());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SnowpipeRestMemoryBudgetTest {
+    private static final long RETRY_AFTER = 7;
+
+    @Test
+    public void tableBytesCountAgainstTheGlobalBudget() {
+        SnowpipeRestMemoryBudget global = global(100);
+        SnowpipeRestMemoryBudget table = table(0, global);
+        table.acquire(60, 0);
+        assertEquals(60, table.getUsed());
+        assertEquals(60, global.getUsed());
+
+        table.release(60);
+        assertEquals(0, table.getUsed());
+        assertEquals(0, global.getUsed());
+    }
+
+    @Test
+    public void fullBudgetFailsWithItsStatusOnceTheWaitIsUp() {
+        SnowpipeRestMemoryBudget table = table(100, null);
+        table.acquire(80, 0);
+
+        SnowpipeRestBackpressureException e = assertThrows(SnowpipeRestBackpressureException.class, () -> table.acquire(30, 20));
+        assertEquals(SnowpipeRestException.TOO_MANY_REQUESTS, e.getStatus());
+        assertEquals(RETRY_AFTER, e.getRetry_after());
+        assertEquals(80, table.getUsed());
+    }
+
+    @Test
+    public void globalRejectionGivesBackTheTableBytes() {
+        SnowpipeRestMemoryBudget global = global(100);
+        SnowpipeRestMemoryBudget busy = table(0, global);
+        SnowpipeRestMemoryBudget table = table(0, global);
+        busy.acquire(80, 0);
+
+        SnowpipeRestBackpressureException e = assertThrows(SnowpipeRestBackpressureException.class, () -> table.acquire(30, 0));
+        assertEquals(SnowpipeRestException.SERVICE_UNAVAILABLE, e.getStatus());
+        assertEquals(0, table.getUsed());
+        assertEquals(80, global.getUsed());
+    }
+
+    @Test
+    public void emptyBudgetLetsInABatchLargerThanItsLimit() {
+        SnowpipeRestMemoryBudget table = table(100, null);
+        table.acquire(250, 0);
+        assertEquals(250, table.getUsed());
+        // Recovered data is taken whatever the limit
+        table.force(50);
+        assertEquals(300, table.getUsed());
+    }
+
+    @Test
+    public void waiterIsLetInWhenBytesAreReleased() throws Exception {
+        SnowpipeRestMemoryBudget global = global(0);
+        SnowpipeRestMemoryBudget table = table(100, global);
+        table.acquire(80, 0);
+
+        CompletableFuture<Void> waiter = CompletableFuture.runAsync(() -> table.acquire(30, 10000));
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+        table.release(80);
+        waiter.get(5, TimeUnit.SECONDS);
+        assertEquals(30, table.getUsed());
+        assertEquals(30, global.getUsed());
+    }
+
+    private static SnowpipeRestMemoryBudget global(long limit) {
+        return new SnowpipeRestMemoryBudget("global", limit, null, SnowpipeRestException.SERVICE_UNAVAILABLE, RETRY_AFTER);
+    }
+
+    private static SnowpipeRestMemoryBudget table(long limit, SnowpipeRestMemoryBudget global) {
+        return new SnowpipeRestMemoryBudget("table", limit, global, SnowpipeRestException.TOO_MANY_REQUESTS, RETRY_AFTER);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The committed offset only moves forward, and completes every waiter it passes
+@Timeout(60)
+public class SnowpipeRestOffsetWatcherTest {
+    @Test
+    public void completesWaitersUpToTheCommittedOffset() {
+        SnowpipeRestOffsetWatcher watcher = new SnowpipeRestOffsetWatcher();
+        CompletableFuture<Void> two = watcher.await(2);
+        CompletableFuture<Void> four = watcher.await(4);
+
+        watcher.committed(3);
+        assertTrue(two.isDone());
+        assertFalse(four.isDone());
+        assertTrue(watcher.await(3).isDone());
+        assertTrue(watcher.hasWaiters());
+    }
+
+    @Test
+    public void staleOffsetDoesNotMoveItBack() {
+        SnowpipeRestOffsetWatcher watcher = new SnowpipeRestOffsetWatcher();
+        watcher.committed(5);
+        watcher.committed(3);
+        assertEquals(5, watcher.getCommitted());
+        assertTrue(watcher.await(5).isDone());
+    }
+
+    @Test
+    public void racingReportsKeepTheHighest() throws Exception {
+        SnowpipeRestOffsetWatcher watcher = new SnowpipeRestOffsetWatcher();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            int first = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (long offset = first; offset <= 100000; offset += 4)
+                    watcher.committed(offset);
+            }));
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(100000, watcher.getCommitted());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Reopening and replaying an invalidated channel, and draining while a channel is recovering
+@Timeout(60)
+public class SnowpipeRestRecoveryTest {
+    private static final String TABLE = "EVENTS";
+
+    @Test
+    public void replaysBufferInTokenOrderAfterInvalidation() throws Exception {
+        try (LocalEngineFixture f = new LocalEngineFixture(LocalEngineFixture.settings().setBatch_size(2))) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 6));
+            LocalIngestChannel old = f.channel(TABLE, 0);
+            f.invalidate(TABLE, 0);
+
+            // The insert finds the channel invalid, and returns once the replay has inserted it
+            SnowpipeInsertResponse resp = f.save(TABLE, LocalEngineFixture.rows("b", 6, 2));
+            assertEquals(2, resp.getNum_succeeded());
+
+            LocalIngestChannel reopened = f.channel(TABLE, 0);
+            assertFalse(old == reopened, "channel was not reopened");
+            assertEquals(LocalEngineFixture.tokens(4), reopened.getUncommittedTokens());
+            assertEquals(8, reopened.getInsertedRows());
+        }
+    }
+
+    @Test
+    public void queuesInsertsBehindTheReplay() throws Exception {
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(1).setReplay_rate(20);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 10));
+            SnowpipeRestTableState table = f.table(TABLE);
+            f.invalidate(TABLE, 0);
+
+            CompletableFuture<SnowpipeInsertResponse> first = CompletableFuture.supplyAsync(() -> f.save(TABLE, LocalEngineFixture.rows("b", 10, 1)));
+            LocalEngineFixture.await("recovery to start", () -> 1 == table.getRecovering(), 5000);
+            // Sent while the buffer is being replayed at 20 rows a second, so it is queued at the end
+            f.save(TABLE, LocalEngineFixture.rows("c", 11, 1));
+            first.get();
+
+            assertEquals(LocalEngineFixture.tokens(12), f.channel(TABLE, 0).getUncommittedTokens());
+            LocalEngineFixture.await("recovery to finish", () -> 0 == table.getRecovering(), 5000);
+        }
+    }
+
+    @Test
+    public void drainKeepsBatchesTheReplayDidNotReach() throws Exception {
+        // The queued insert gives up after 100 ms, so no request holds the drain up while the replay runs
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(1).setReplay_rate(5).setRecovery_wait(100);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 10));
+            SnowpipeRestTableState table = f.table(TABLE);
+            SnowpipeRestChannelState state = table.channels[0];
+            LocalIngestChannel old = f.channel(TABLE, 0);
+            f.invalidate(TABLE, 0);
+
+            SnowpipeRestException timed_out = assertThrows(SnowpipeRestException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 10, 1)));
+            assertEquals(SnowpipeRestException.SERVICE_UNAVAILABLE, timed_out.getStatus());
+            LocalEngineFixture.await("replay to start", () -> old != f.channel(TABLE, 0) && f.channel(TABLE, 0).getInsertedRows() >= 2, 5000);
+
+            long left = f.engine.drain(5000);
+
+            // The reopened channel was closed once the replay stopped, which committed what it had
+            // been sent; only that leaves the buffer
+            LocalIngestChannel reopened = f.channel(TABLE, 0);
+            assertTrue(reopened.isClosed());
+            long committed = Long.parseLong(reopened.getLatestCommittedOffsetToken());
+            assertTrue(committed < 10, "the replay finished before the drain");
+            assertEquals(10 - committed, left);
+            assertEquals(left, state.buffer.getRows());
+            assertEquals(committed + 1, (long)state.buffer.entries().firstKey());
+            assertEquals(10L, (long)state.buffer.entries().lastKey());
+            assertEquals(0, table.getRecovering());
+        }
+    }
+
+    @Test
+    public void drainStopsAPacedReplay() throws Exception {
+        // Each replayed batch of 5 rows is followed by a 5 s pause, which the drain does not wait out
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(5).setReplay_rate(1).setRecovery_wait(100);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 10));
+            SnowpipeRestTableState table = f.table(TABLE);
+            SnowpipeRestChannelState state = table.channels[0];
+            LocalIngestChannel old = f.channel(TABLE, 0);
+            f.invalidate(TABLE, 0);
+
+            assertThrows(SnowpipeRestException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 10, 1)));
+            LocalEngineFixture.await("replay to start", () -> old != f.channel(TABLE, 0) && f.channel(TABLE, 0).getInsertedRows() >= 5, 5000);
+
+            long start = System.nanoTime();
+            long left = f.engine.drain(10000);
+            long drain_ms = (System.nanoTime() - start) / 1_000_000L;
+            assertTrue(drain_ms < 2500, String.format("drain took %d ms", drain_ms));
+
+            // The replay stopped after its first batch, which the close committed
+            assertEquals(0, table.getRecovering());
+            assertTrue(f.channel(TABLE, 0).isClosed());
+            assertEquals(5, left);
+            assertEquals(2L, (long)state.buffer.entries().firstKey());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnowpipeRestRowReaderTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void readsJsonArrayRows() {
+        try (SnowpipeRestRowReader reader = reader("[{\"ID\": 1}, {\"ID\": 2, \"NAME\": \"b\"}]", false)) {
+            assertEquals(Map.of("ID", 1), reader.next());
+            assertEquals(Map.of("ID", 2, "NAME", "b"), reader.next());
+            assertNull(reader.next());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void readsNdjsonRows() {
+        // A trailing newline, blank lines and a missing final newline are all accepted
+        for (String body : new String[] {"{\"ID\": 1}\n{\"ID\": 2}\n", "{\"ID\": 1}\n\n{\"ID\": 2}", "{\"ID\": 1}\r\n{\"ID\": 2}\r\n"}) {
+            try (SnowpipeRestRowReader reader = reader(body, true)) {
+                assertEquals(Map.of("ID", 1), reader.next());
+                assertEquals(Map.of("ID", 2), reader.next());
+                assertNull(reader.next());
+            }
+        }
+        try (SnowpipeRestRowReader reader = reader("", true)) {
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void rowBytesAreEachObjectsSizeInTheBody() {
+        // Separators and whitespace between rows are not counted; multi-byte characters are
+        String[] rows = {"{\"ID\":1}", "{ \"NAME\": \"café\" }", "{\"A\":[1,2,{\"B\":null}]}"};
+        for (boolean ndjson : new boolean[] {false, true}) {
+            String body = ndjson ? String.join("\n", rows) : "[ " + String.join(" ,\n", rows) + " ]";
+            try (SnowpipeRestRowReader reader = reader(body, ndjson)) {
+                List<Long> sizes = new ArrayList<Long>();
+                while (null != reader.next())
+                    sizes.add(reader.getLastRowBytes());
+                List<Long> expected = new ArrayList<Long>();
+                for (String row : rows)
+                    expected.add((long)row.getBytes(StandardCharsets.UTF_8).length);
+                assertEquals(expected, sizes);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsABodyThatIsNotAnArrayOfObjects() {
+        assertThrows(SnowpipeRestJsonParseException.class, () -> reader("{\"ID\": 1}", false));
+        try (SnowpipeRestRowReader reader = reader("[{\"ID\": 1}, 2]", false)) {
+            reader.next();
+            assertThrows(SnowpipeRestJsonParseException.class, reader::next);
+        }
+        try (SnowpipeRestRowReader reader = reader("[{\"ID\": 1}, {\"ID\": ", false)) {
+            reader.next();
+            assertThrows(SnowpipeRestJsonParseException.class, reader::next);
+        }
+    }
+
+    @Test
+    public void ndjsonParseErrorsGiveTheLine() {
+        try (SnowpipeRestRowReader reader = reader("{\"ID\": 1}\n{\"ID\": 2}\n[3]\n", true)) {
+            reader.next();
+            reader.next();
+            SnowpipeRestJsonParseException e = assertThrows(SnowpipeRestJsonParseException.class, reader::next);
+            assertTrue(e.getMessage().contains("(line 3)"), e.getMessage());
+        }
+    }
+
+    private SnowpipeRestRowReader reader(String body, boolean ndjson) {
+        return new SnowpipeRestRowReader(this.objectMapper, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), ndjson);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.SnowpipeRest.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnowpipeRestTableSchemaTest {
+    private static final SnowpipeRestTableSchema SCHEMA = new SnowpipeRestTableSchema(List.of(
+            column("ID", "FIXED", 38, 0, null, false),
+            column("AMOUNT", "FIXED", 10, 2, null, true),
+            column("RATIO", "REAL", null, null, null, true),
+            column("CODE", "TEXT", null, null, 3, true),
+            column("Mixed", "TEXT", null, null, null, true),
+            column("DAY", "DATE", null, null, null, true),
+            column("AT", "TIME", null, null, null, true),
+            column("SEEN", "TIMESTAMP_NTZ", null, null, null, true),
+            column("SEEN_TZ", "TIMESTAMP_TZ", null, null, null, true)));
+
+    @Test
+    public void foldsUnquotedKeysToUpperCase() throws Exception {
+        Map<String,Object> converted = SCHEMA.convert(row("id", 1, "Code", "abc", "\"Mixed\"", "m"));
+        assertEquals(Map.of("ID", 1L, "CODE", "abc", "\"Mixed\"", "m"), converted);
+
+        // An unquoted key is an upper-case identifier, so it cannot name a mixed-case column
+        SnowpipeRestTableSchema.RowException e = assertThrows(SnowpipeRestTableSchema.RowException.class, () -> SCHEMA.convert(row("ID", 1, "mixed", "m")));
+        assertEquals("Extra column: mixed", e.getMessage());
+        assertEquals(Map.of("ID", 1L), SCHEMA.convert(row("\"ID\"", 1)));
+    }
+
+    @Test
+    public void doublesQuotesInQuotedKeys() throws Exception {
+        SnowpipeRestTableSchema schema = new SnowpipeRestTableSchema(List.of(
+                column("Say \"hi\"", "TEXT", null, null, null, true),
+                column("A\"B", "TEXT", null, null, null, true)));
+        Map<String,Object> converted = schema.convert(row("\"Say \"\"hi\"\"\"", "x", "\"A\"\"B\"", "y"));
+        assertEquals(Map.of("\"Say \"\"hi\"\"\"", "x", "\"A\"\"B\"", "y"), converted);
+    }
+
+    @Test
+    public void parsesDatesAndTimestamps() throws Exception {
+        Map<String,Object> converted = SCHEMA.convert(row("ID", 1,
+                "DAY", "2024-01-02",
+                "AT", "03:04:05.123",
+                "SEEN", " 2024-01-02T03:04:05.123456 ",
+                "SEEN_TZ", "2024-01-02T03:04:05+02:00"));
+        assertEquals(LocalDate.of(2024, 1, 2), converted.get("DAY"));
+        assertEquals(LocalTime.of(3, 4, 5, 123000000), converted.get("AT"));
+        assertEquals(LocalDateTime.of(2024, 1, 2, 3, 4, 5, 123456000), converted.get("SEEN"));
+        assertEquals(OffsetDateTime.parse("2024-01-02T03:04:05+02:00"), converted.get("SEEN_TZ"));
+
+        // Formats only the SDK understands are passed on as they are
+        converted = SCHEMA.convert(row("ID", 1, "DAY", "01/02/2024", "SEEN", "1704164645", "SEEN_TZ", "2024-01-02 03:04:05"));
+        assertEquals("01/02/2024", converted.get("DAY"));
+        assertEquals("1704164645", converted.get("SEEN"));
+        assertEquals("2024-01-02 03:04:05", converted.get("SEEN_TZ"));
+    }
+
+    @Test
+    public void parsesNumbersToTheColumnsScale() throws Exception {
+        assertEquals(new BigDecimal("12.35"), SCHEMA.convert(row("ID", 1, "AMOUNT", "12.345")).get("AMOUNT"));
+        assertEquals(new BigDecimal("12.00"), SCHEMA.convert(row("ID", 1, "AMOUNT", 12)).get("AMOUNT"));
+        assertEquals(new BigDecimal("0.10"), SCHEMA.convert(row("ID", 1, "AMOUNT", 0.1)).get("AMOUNT"));
+        // Integers that fit stay longs; fractions are rounded half up
+        assertEquals(42L, SCHEMA.convert(row("ID", "42")).get("ID"));
+        assertEquals(3L, SCHEMA.convert(row("ID", 2.5)).get("ID"));
+        assertEquals(new BigDecimal("12345678901234567890"), SCHEMA.convert(row("ID", new BigDecimal("12345678901234567890"))).get("ID"));
+        assertEquals(1.5, SCHEMA.convert(row("ID", 1, "RATIO", "1.5")).get("RATIO"));
+        assertEquals(2.0, SCHEMA.convert(row("ID", 1, "RATIO", 2)).get("RATIO"));
+    }
+
+    @Test
+    public void rejectsRowsTheSdkWouldReject() {
+        assertRejected("Extra column: OTHER", row("ID", 1, "OTHER", 2));
+        assertRejected("Duplicate column: ID", row("ID", 1, "id", 2));
+        assertRejected("Missing non-nullable column: ID", row("AMOUNT", 1));
+        assertRejected("Null value in non-nullable column: ID", row("ID", null));
+        assertRejected("Not a valid number: abc, column: AMOUNT", row("ID", 1, "AMOUNT", "abc"));
+        assertRejected("Not a valid number: NaN, column: AMOUNT", row("ID", 1, "AMOUNT", Double.NaN));
+        // NUMBER(10,2) holds eight digits before the point
+        assertRejected("Number out of representable exclusive range of (-1e8..1e8), column: AMOUNT", row("ID", 1, "AMOUNT", 123456789));
+        assertRejected("String too long: length=4 characters maxLength=3 characters, column: CODE", row("ID", 1, "CODE", "abcd"));
+    }
+
+    @Test
+    public void acceptsNullsAndLimitsInCharacters() throws Exception {
+        Map<String,Object> converted = SCHEMA.convert(row("ID", 1, "AMOUNT", null, "CODE", "😀😀😀"));
+        assertTrue(converted.containsKey("AMOUNT"));
+        assertNull(converted.get("AMOUNT"));
+        // Lengths are in characters, not UTF-16 units
+        assertEquals("😀😀😀", converted.get("CODE"));
+        assertEquals(new BigDecimal("99999999.99"), SCHEMA.convert(row("ID", 1, "AMOUNT", "99999999.99")).get("AMOUNT"));
+    }
+
+    @Test
+    public void comparesColumnsAndTypes() {
+        SnowpipeRestTableSchema same = new SnowpipeRestTableSchema(List.of(column("ID", "FIXED", 38, 0, null, false)));
+        assertTrue(same.sameAs(new SnowpipeRestTableSchema(List.of(column("ID", "FIXED", 38, 0, null, false)))));
+        assertFalse(same.sameAs(new SnowpipeRestTableSchema(List.of(column("ID", "FIXED", 38, 2, null, false)))));
+        assertFalse(same.sameAs(new SnowpipeRestTableSchema(List.of(column("ID", "FIXED", 38, 0, null, true)))));
+        assertFalse(same.sameAs(new SnowpipeRestTableSchema(List.of(column("KEY", "FIXED", 38, 0, null, false)))));
+        assertFalse(same.sameAs(SCHEMA));
+        assertFalse(same.sameAs(null));
+    }
+
+    private static void assertRejected(String message, Map<String,Object> row) {
+        SnowpipeRestTableSchema.RowException e = assertThrows(SnowpipeRestTableSchema.RowException.class, () -> SCHEMA.convert(row));
+        assertEquals(message, e.getMessage());
+    }
+
+    private static SnowpipeRestTableSchema.Column column(String name, String logical_type, Integer precision, Integer scale, Integer length, boolean nullable) {
+        return new SnowpipeRestTableSchema.Column(name, logical_type, logical_type, precision, scale, length, nullable);
+    }
+
+    private static Map<String,Object> row(Object... kv) {
+        Map<String,Object> row = new LinkedHashMap<String,Object>();
+        for (int i = 0; i < kv.length; i += 2)
+            row.put((String)kv[i], kv[i + 1]);
+        return row;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.SnowpipeRest.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Batches written to the write-ahead log come back, in token order, after a restart; committed
+// segments are deleted; a torn record ends the recovery; skipped records do not come back
+@Timeout(60)
+public class SnowpipeRestWalTest {
+    private static final String TABLE = "EVENTS";
+    // Room for a few records, so the log rolls over to new segments
+    private static final int SEGMENT_BYTES = 256;
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void recoversWhatWasAppended() {
+        SnowpipeRestWal wal = new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper);
+        for (long token = 1; token <= 20; token++)
+            wal.append(token, rows(token));
+        assertTrue(segments() > 1);
+
+        SnowpipeRestWal recovered = new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper);
+        List<SnowpipeRestWal.Record> records = recovered.recover();
+        assertEquals(20, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            SnowpipeRestWal.Record record = records.get(i);
+            assertEquals(i + 1L, record.token);
+            assertEquals(rows(record.token), recovered.read(record));
+        }
+    }
+
+    @Test
+    public void truncateDeletesCommittedSegments() {
+        SnowpipeRestWal wal = new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper);
+        for (long token = 1; token <= 20; token++)
+            wal.append(token, rows(token));
+        int before = segments();
+        wal.truncate(10);
+        assertTrue(segments() < before);
+
+        // Nothing after the committed offset is lost, and appends continue in the same log
+        wal.append(21, rows(21));
+        List<Long> tokens = new ArrayList<Long>();
+        for (SnowpipeRestWal.Record record : new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper).recover())
+            tokens.add(record.token);
+        assertTrue(tokens.get(0) > 1 && tokens.get(0) <= 11, tokens.toString());
+        for (int i = 1; i < tokens.size(); i++)
+            assertEquals(tokens.get(i - 1) + 1, (long)tokens.get(i));
+        assertEquals(21L, (long)tokens.get(tokens.size() - 1));
+
+        // The segment being written is kept even once everything in it is committed
+        wal.truncate(21);
+        assertEquals(1, segments());
+    }
+
+    @Test
+    public void tornRecordEndsRecovery() throws Exception {
+        SnowpipeRestWal wal = new SnowpipeRestWal(this.dir, 4096, false, this.objectMapper);
+        SnowpipeRestWal.Record last = null;
+        for (long token = 1; token <= 5; token++)
+            last = wal.append(token, rows(token));
+
+        // Flip a byte of the last record's payload, as a crash part way through writing it would leave it
+        try (FileChannel file = FileChannel.open(last.segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long at = last.position + 20;
+            file.read(b, at);
+            b.flip();
+            byte flipped = (byte)~b.get();
+            file.write(ByteBuffer.wrap(new byte[] {flipped}), at);
+        }
+
+        List<SnowpipeRestWal.Record> records = new SnowpipeRestWal(this.dir, 4096, false, this.objectMapper).recover();
+        assertEquals(4, records.size());
+        assertEquals(4L, records.get(3).token);
+    }
+
+    @Test
+    public void skippedRecordsAreNotRecovered() {
+        SnowpipeRestWal wal = new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper);
+        List<SnowpipeRestWal.Record> appended = new ArrayList<SnowpipeRestWal.Record>();
+        for (long token = 1; token <= 5; token++)
+            appended.add(wal.append(token, rows(token)));
+        wal.skip(appended.get(1));
+        wal.skip(appended.get(4));
+
+        List<Long> tokens = new ArrayList<Long>();
+        for (SnowpipeRestWal.Record record : new SnowpipeRestWal(this.dir, SEGMENT_BYTES, false, this.objectMapper).recover())
+            tokens.add(record.token);
+        assertEquals(List.of(1L, 3L, 4L), tokens);
+    }
+
+    @Test
+    public void restartReplaysUncommittedBatches() throws Exception {
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(2).setWal_dir(this.dir.toString());
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings, backend)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 4));
+            backend.commitAll();
+            f.save(TABLE, LocalEngineFixture.rows("b", 4, 4));
+            // A crash: what the channel was sent after the commit is lost with it
+            backend.invalidateAll();
+        }
+
+        // The same instance id finds the log; only the batches after the committed offset are replayed
+        try (LocalEngineFixture f = new LocalEngineFixture(settings, backend)) {
+            SnowpipeRestTableState table = f.table(TABLE);
+            LocalEngineFixture.await("WAL replay", () -> 0 == table.getRecovering(), 5000);
+            LocalIngestChannel channel = f.channel(TABLE, 0);
+            assertEquals(List.of("3", "4"), channel.getUncommittedTokens());
+            assertEquals(4, channel.getCommittedRows());
+            assertEquals(4, channel.getInsertedRows());
+
+            // New batches follow the replayed ones
+            f.save(TABLE, LocalEngineFixture.rows("c", 8, 2));
+            assertEquals(List.of("3", "4", "5"), channel.getUncommittedTokens());
+            backend.commitAll();
+            assertEquals(10, channel.getCommittedRows());
+            LocalEngineFixture.await("buffer to be purged", () -> 0 == table.getBufferedRows(), 5000);
+        }
+    }
+
+    @Test
+    public void restartSkipsBatchesWhoseRequestFailed() throws Exception {
+        // The insert queued behind the replay gives up after 50 ms, long before the replay reaches it
+        SnowpipeRestSettings settings = LocalEngineFixture.settings().setBatch_size(1).setReplay_rate(5).setRecovery_wait(50)
+                .setWal_dir(this.dir.toString());
+        LocalIngestBackend backend = new LocalIngestBackend().setCommit_lag_ms(LocalEngineFixture.NEVER_MS);
+        try (LocalEngineFixture f = new LocalEngineFixture(settings, backend)) {
+            f.save(TABLE, LocalEngineFixture.rows("a", 0, 4));
+            SnowpipeRestTableState table = f.table(TABLE);
+            f.invalidate(TABLE, 0);
+            assertThrows(SnowpipeRestBackpressureException.class, () -> f.save(TABLE, LocalEngineFixture.rows("b", 4, 1)));
+            LocalEngineFixture.await("recovery to finish", () -> 0 == table.getRecovering(), 5000);
+            backend.invalidateAll();
+        }
+
+        // The client retries the failed request itself, so only the four acknowledged batches come back
+        try (LocalEngineFixture f = new LocalEngineFixture(settings, backend)) {
+            SnowpipeRestTableState table = f.table(TABLE);
+            LocalEngineFixture.await("WAL replay", () -> 0 == table.getRecovering(), 5000);
+            assertEquals(LocalEngineFixture.tokens(4), f.channel(TABLE, 0).getUncommittedTokens());
+            assertEquals(4, table.getBufferedRows());
+        }
+    }
+
+    private static List<Map<String,Object>> rows(long token) {
+        Map<String,Object> row = new LinkedHashMap<String,Object>();
+        row.put("ID", (int)token);
+        row.put("NAME", String.format("row %d", token));
+        return List.of(row);
+    }
+
+    private int segments() {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir, "*.wal")) {
+            for (Path p : files)
+                n++;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.SnowpipeRest.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Drives the Snowpipe REST insert endpoint with each combination of the given concurrency,
+// batch size and row width, and writes the throughput and HdrHistogram latency percentiles of
+// each as JSON. Given the results of an earlier build, it reports and fails on regressions.
+public class LoadGenerator {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        if (List.of(args).contains("--help")) {
+            System.out.println(LoadOptions.USAGE);
+            return;
+        }
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+        List<String> file_rows = options.files.isEmpty() ? null : Payloads.readRows(options.files, mapper);
+        HttpClient http = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        List<Map<String, Object>> runs = new ArrayList<Map<String, Object>>();
+        for (int columns : options.columns) {
+            for (int batch_size : options.batch_size) {
+                Payloads payloads = Payloads.make(file_rows, batch_size, columns, "ndjson".equals(options.format));
+                for (int concurrency : options.concurrency) {
+                    System.err.println(String.format("Running concurrency=%d batch_size=%d columns=%s rate=%s for %ds after %ds warmup",
+                            concurrency, batch_size, (columns > 0) ? columns : "file", options.rate, options.duration_s, options.warmup_s));
+                    Map<String, Object> run = new LoadRun(options, http, concurrency, batch_size, columns, payloads).run();
+                    System.err.println(String.format("  %.0f rows/s, statuses %s", (Double)run.get("rows_per_s"), run.get("statuses")));
+                    runs.add(run);
+                }
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("label", options.label);
+        report.put("url", options.url);
+        report.put("finished", Instant.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("runs", runs);
+        if (null == options.out)
+            System.out.println(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        else
+            Files.write(options.out, mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(report));
+
+        if (null != options.baseline && !compare(runs, options))
+            System.exit(2);
+    }
+
+    // Compares each run with the baseline run of the same shape; false if any regressed by more than the tolerance
+    private static boolean compare(List<Map<String, Object>> runs, LoadOptions options) throws IOException {
+        JsonNode baseline;
+        try (InputStream in = Files.newInputStream(options.baseline)) {
+            baseline = mapper.readTree(in);
+        }
+        Map<String, JsonNode> base_runs = new HashMap<String, JsonNode>();
+        for (JsonNode run : baseline.path("runs"))
+            base_runs.put(key(run), run);
+        boolean ok = true;
+        for (Map<String, Object> run : runs) {
+            JsonNode current = mapper.convertValue(run, JsonNode.class);
+            JsonNode base = base_runs.get(key(current));
+            if (null == base) {
+                System.err.println(String.format("No baseline for %s", key(current)));
+                continue;
+            }
+            ok &= within(key(current), "rows_per_s", current.path("rows_per_s").asDouble(), base.path("rows_per_s").asDouble(), false, options.tolerance);
+            for (String latency : new String[] {"accept_ms", "commit_ms"}) {
+                JsonNode b = base.path(latency).path("p99");
+                JsonNode c = current.path(latency).path("p99");
+                if (!b.isMissingNode() && !c.isMissingNode())
+                    ok &= within(key(current), latency + " p99", c.asDouble(), b.asDouble(), true, options.tolerance);
+            }
+        }
+        return ok;
+    }
+
+    private static boolean within(String run, String metric, double current, double base, boolean lower_is_better, double tolerance) {
+        boolean regressed = lower_is_better ? current > base * (1 + tolerance) : current < base * (1 - tolerance);
+        System.err.println(String.format("%s %s: %.2f (baseline %.2f)%s", run, metric, current, base, regressed ? " REGRESSION" : ""));
+        return !regressed;
+    }
+
+    private static String key(JsonNode run) {
+        return String.format("concurrency=%s batch_size=%s columns=%s rate=%s ack=%s format=%s",
+                run.path("concurrency").asText(), run.path("batch_size").asText(), run.path("columns").asText(),
+                run.path("rate").asText(), run.path("ack").asText(), run.path("format").asText());
+    }
+}
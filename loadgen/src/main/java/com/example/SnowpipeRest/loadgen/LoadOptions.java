@@ -0,0 +1,116 @@
+package com.example.SnowpipeRest.loadgen;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command-line options, each given as --name=value. Options taking a list run every value:
+// the load generator runs one load for each combination of concurrency, batch size and columns.
+final class LoadOptions {
+    static final String ACK_ACCEPTED = "accepted";
+    static final String ACK_COMMITTED = "committed";
+    static final String ACK_BOTH = "both";
+
+    String url = "http://localhost:8080/snowpipe/insert/DB/PUBLIC/EVENTS";
+    List<Integer> concurrency = List.of(16);
+    List<Integer> batch_size = List.of(100);
+    List<Integer> columns = List.of(8);
+    List<Path> files = new ArrayList<Path>();
+    double rate = 0;
+    long duration_s = 30;
+    long warmup_s = 5;
+    String ack = ACK_BOTH;
+    double commit_sample = 0.1;
+    String format = "json";
+    String auth = null;
+    String label = "";
+    Path out = null;
+    Path baseline = null;
+    double tolerance = 0.1;
+    long timeout_s = 120;
+
+    static final String USAGE = String.join("\n",
+            "Usage: java -jar loadgen.jar [--name=value ...]",
+            "  --url=URL               table endpoint to PUT to (default: http://localhost:8080/snowpipe/insert/DB/PUBLIC/EVENTS)",
+            "  --concurrency=N[,N...]  requests in flight (default: 16)",
+            "  --batch_size=N[,N...]   rows per request (default: 100)",
+            "  --columns=N[,N...]      columns per generated row (default: 8)",
+            "  --file=PATH[,PATH...]   newline-delimited JSON files whose lines are replayed as rows instead of generated rows",
+            "  --rate=R                requests per second across all connections; 0 sends as fast as the concurrency allows (default: 0)",
+            "  --duration=S            seconds to measure each load (default: 30)",
+            "  --warmup=S              seconds to run each load before measuring (default: 5)",
+            "  --ack=MODE              accepted, committed, or both, which sends a sample of requests with ack=committed (default: both)",
+            "  --commit_sample=F       fraction of requests sent with ack=committed when --ack=both (default: 0.1)",
+            "  --format=FORMAT         json (an array per request) or ndjson (default: json)",
+            "  --auth=USER:PASSWORD    HTTP basic authentication, as the AWS API uses",
+            "  --label=TEXT            label for the results, e.g. the build being tested",
+            "  --out=PATH              file to write the JSON results to (default: standard output)",
+            "  --baseline=PATH         earlier results to compare with; exits with status 2 on a regression",
+            "  --tolerance=F           allowed regression against the baseline (default: 0.1)",
+            "  --timeout=S             request timeout in seconds (default: 120)");
+
+    private LoadOptions() {
+    }
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException(String.format("Options must be --name=value: %s", arg));
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            try {
+                switch (name) {
+                    case "url": options.url = value; break;
+                    case "concurrency": options.concurrency = ints(value); break;
+                    case "batch_size": options.batch_size = ints(value); break;
+                    case "columns": options.columns = ints(value); break;
+                    case "file":
+                        for (String f : value.split(","))
+                            options.files.add(Paths.get(f.trim()));
+                        break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "duration": options.duration_s = Long.parseLong(value); break;
+                    case "warmup": options.warmup_s = Long.parseLong(value); break;
+                    case "ack": options.ack = value; break;
+                    case "commit_sample": options.commit_sample = Double.parseDouble(value); break;
+                    case "format": options.format = value; break;
+                    case "auth": options.auth = value; break;
+                    case "label": options.label = value; break;
+                    case "out": options.out = Paths.get(value); break;
+                    case "baseline": options.baseline = Paths.get(value); break;
+                    case "tolerance": options.tolerance = Double.parseDouble(value); break;
+                    case "timeout": options.timeout_s = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException(String.format("Unknown option: --%s", name));
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid value for --%s: %s", name, value));
+            }
+        }
+        if (!ACK_ACCEPTED.equals(options.ack) && !ACK_COMMITTED.equals(options.ack) && !ACK_BOTH.equals(options.ack))
+            throw new IllegalArgumentException(String.format("Unknown ack mode: %s", options.ack));
+        if (!"json".equals(options.format) && !"ndjson".equals(options.format))
+            throw new IllegalArgumentException(String.format("Unknown format: %s", options.format));
+        if (options.commit_sample <= 0 || options.commit_sample > 1)
+            throw new IllegalArgumentException("--commit_sample must be above 0 and at most 1");
+        if (options.duration_s <= 0)
+            throw new IllegalArgumentException("--duration must be positive");
+        // Rows from files have the files' width
+        if (!options.files.isEmpty())
+            options.columns = List.of(0);
+        return options;
+    }
+
+    private static List<Integer> ints(String value) {
+        List<Integer> values = new ArrayList<Integer>();
+        for (String v : value.split(",")) {
+            int n = Integer.parseInt(v.trim());
+            if (n <= 0)
+                throw new NumberFormatException();
+            values.add(n);
+        }
+        return values;
+    }
+}
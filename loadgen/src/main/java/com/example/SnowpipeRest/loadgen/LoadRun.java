@@ -0,0 +1,182 @@
+package com.example.SnowpipeRest.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// One load: concurrency connections sending requests of batch_size rows for the warmup and then
+// the measured duration. With a rate, request n is due at start + n / rate and its latency is
+// measured from then, so requests delayed behind slow ones count as slow (no coordinated omission).
+// Requests sent with ack=committed measure commit time: the time until Snowflake has committed
+// the rows and the service answers. The rest measure accept time.
+final class LoadRun {
+    // Latencies are recorded in microseconds, up to an hour, to 3 significant digits
+    private static final long HIGHEST_US = TimeUnit.HOURS.toMicros(1);
+
+    private final LoadOptions options;
+    private final HttpClient http;
+    private final int concurrency;
+    private final int batch_size;
+    private final int columns;
+    private final Payloads payloads;
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final long commit_period;
+
+    // What one connection saw while measuring
+    private static final class Stats {
+        final Histogram accept = new Histogram(HIGHEST_US, 3);
+        final Histogram commit = new Histogram(HIGHEST_US, 3);
+        final Map<String, Long> statuses = new TreeMap<String, Long>();
+        // Rows sent by the requests that succeeded
+        long rows = 0;
+        long commit_timeouts = 0;
+
+        void add(Stats other) {
+            this.accept.add(other.accept);
+            this.commit.add(other.commit);
+            other.statuses.forEach((k, v) -> this.statuses.merge(k, v, Long::sum));
+            this.rows += other.rows;
+            this.commit_timeouts += other.commit_timeouts;
+        }
+    }
+
+    LoadRun(LoadOptions options, HttpClient http, int concurrency, int batch_size, int columns, Payloads payloads) {
+        this.options = options;
+        this.http = http;
+        this.concurrency = concurrency;
+        this.batch_size = batch_size;
+        this.columns = columns;
+        this.payloads = payloads;
+        this.commit_period = Math.max(1, Math.round(1 / options.commit_sample));
+    }
+
+    Map<String, Object> run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measure_from = start + TimeUnit.SECONDS.toNanos(this.options.warmup_s);
+        long end = measure_from + TimeUnit.SECONDS.toNanos(this.options.duration_s);
+        Stats[] stats = new Stats[this.concurrency];
+        Thread[] connections = new Thread[this.concurrency];
+        for (int c = 0; c < this.concurrency; c++) {
+            Stats s = stats[c] = new Stats();
+            connections[c] = Thread.ofVirtual().name("loadgen-", c).start(() -> send(s, start, measure_from, end));
+        }
+        for (Thread t : connections)
+            t.join();
+        Stats total = new Stats();
+        for (Stats s : stats)
+            total.add(s);
+        return result(total);
+    }
+
+    private void send(Stats stats, long start, long measure_from, long end) {
+        double interval_ns = (this.options.rate > 0) ? 1e9 / this.options.rate : 0;
+        while (true) {
+            long n = this.sequence.getAndIncrement();
+            long due;
+            if (interval_ns > 0) {
+                due = start + (long)(n * interval_ns);
+                if (due - end >= 0)
+                    return;
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime())
+                    LockSupport.parkNanos(wait);
+            }
+            else {
+                due = System.nanoTime();
+                if (due - end >= 0)
+                    return;
+            }
+            boolean committed = committed(n);
+            String status;
+            try {
+                HttpResponse<Void> response = this.http.send(request(n, committed), HttpResponse.BodyHandlers.discarding());
+                status = String.valueOf(response.statusCode());
+            }
+            catch (IOException e) {
+                status = "error";
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long latency_us = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due);
+            if (due - measure_from < 0)
+                continue;
+            stats.statuses.merge(status, 1L, Long::sum);
+            if ("200".equals(status)) {
+                stats.rows += this.payloads.rows(n);
+                (committed ? stats.commit : stats.accept).recordValue(Math.min(latency_us, HIGHEST_US));
+            }
+            else if (committed && "202".equals(status))
+                stats.commit_timeouts++;
+        }
+    }
+
+    private boolean committed(long n) {
+        switch (this.options.ack) {
+            case LoadOptions.ACK_COMMITTED: return true;
+            case LoadOptions.ACK_ACCEPTED: return false;
+            default: return 0 == n % this.commit_period;
+        }
+    }
+
+    private HttpRequest request(long n, boolean committed) {
+        String url = this.options.url + (this.options.url.contains("?") ? "&" : "?")
+                + "ack=" + (committed ? LoadOptions.ACK_COMMITTED : LoadOptions.ACK_ACCEPTED);
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(this.options.timeout_s))
+                .header("Content-Type", this.payloads.contentType())
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(this.payloads.body(n)));
+        if (null != this.options.auth)
+            request.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(this.options.auth.getBytes(StandardCharsets.UTF_8)));
+        return request.build();
+    }
+
+    private Map<String, Object> result(Stats total) {
+        long ok = total.statuses.getOrDefault("200", 0L);
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("concurrency", this.concurrency);
+        result.put("batch_size", this.batch_size);
+        result.put("columns", (this.columns > 0) ? this.columns : "file");
+        result.put("rate", this.options.rate);
+        result.put("ack", this.options.ack);
+        result.put("format", this.options.format);
+        result.put("duration_s", this.options.duration_s);
+        result.put("requests", total.statuses.values().stream().mapToLong(Long::longValue).sum());
+        result.put("rows", total.rows);
+        result.put("requests_per_s", (double)ok / this.options.duration_s);
+        result.put("rows_per_s", (double)total.rows / this.options.duration_s);
+        result.put("statuses", total.statuses);
+        result.put("commit_timeouts", total.commit_timeouts);
+        result.put("accept_ms", summary(total.accept));
+        result.put("commit_ms", summary(total.commit));
+        return result;
+    }
+
+    private static Map<String, Object> summary(Histogram h) {
+        if (0 == h.getTotalCount())
+            return null;
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("count", h.getTotalCount());
+        summary.put("min", h.getMinValue() / 1000.0);
+        summary.put("mean", Math.round(h.getMean()) / 1000.0);
+        summary.put("p50", h.getValueAtPercentile(50) / 1000.0);
+        summary.put("p90", h.getValueAtPercentile(90) / 1000.0);
+        summary.put("p99", h.getValueAtPercentile(99) / 1000.0);
+        summary.put("p99.9", h.getValueAtPercentile(99.9) / 1000.0);
+        summary.put("max", h.getMaxValue() / 1000.0);
+        return summary;
+    }
+}
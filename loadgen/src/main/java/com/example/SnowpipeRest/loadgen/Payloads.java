@@ -0,0 +1,96 @@
+package com.example.SnowpipeRest.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Request bodies, made before the load starts so building them is not measured. The bodies are
+// sent in turn: the rows of the given files, in order, or a pool of generated rows.
+final class Payloads {
+    private static final int POOL_SIZE = 64;
+
+    private final byte[][] bodies;
+    private final int[] rows;
+    private final String content_type;
+
+    private Payloads(byte[][] bodies, int[] rows, String content_type) {
+        this.bodies = bodies;
+        this.rows = rows;
+        this.content_type = content_type;
+    }
+
+    byte[] body(long n) {
+        return this.bodies[(int)(n % this.bodies.length)];
+    }
+
+    // Rows in the body of request n
+    int rows(long n) {
+        return this.rows[(int)(n % this.rows.length)];
+    }
+
+    String contentType() {
+        return this.content_type;
+    }
+
+    // Each non-empty line of the files is one row, which must be a JSON object
+    static List<String> readRows(List<Path> files, ObjectMapper mapper) throws IOException {
+        List<String> rows = new ArrayList<String>();
+        for (Path file : files) {
+            int line_number = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                line_number++;
+                if (line.isBlank())
+                    continue;
+                JsonNode row = mapper.readTree(line);
+                if (null == row || !row.isObject())
+                    throw new IOException(String.format("%s:%d is not a JSON object", file, line_number));
+                rows.add(line.trim());
+            }
+        }
+        if (rows.isEmpty())
+            throw new IOException(String.format("No rows in %s", files));
+        return rows;
+    }
+
+    static Payloads make(List<String> file_rows, int batch_size, int columns, boolean ndjson) {
+        // Every row of the files is sent once per pass; the last body holds the rows that are left
+        int pool = (null == file_rows) ? POOL_SIZE : (file_rows.size() + batch_size - 1) / batch_size;
+        byte[][] bodies = new byte[pool][];
+        int[] rows = new int[pool];
+        long row = 0;
+        for (int b = 0; b < pool; b++) {
+            rows[b] = (null == file_rows) ? batch_size : (int)Math.min(batch_size, file_rows.size() - row);
+            StringBuilder body = new StringBuilder(ndjson ? "" : "[");
+            for (int r = 0; r < rows[b]; r++, row++) {
+                if (!ndjson && r > 0)
+                    body.append(',');
+                body.append((null == file_rows) ? generated(row, columns) : file_rows.get((int)row));
+                if (ndjson)
+                    body.append('\n');
+            }
+            if (!ndjson)
+                body.append(']');
+            bodies[b] = body.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return new Payloads(bodies, rows, ndjson ? "application/x-ndjson" : "application/json");
+    }
+
+    // An ID column and then alternating number and 16-character string columns
+    private static String generated(long id, int columns) {
+        StringBuilder row = new StringBuilder("{\"ID\": ").append(id);
+        for (int c = 1; c < columns; c++) {
+            row.append(", \"C").append(c).append("\": ");
+            if (0 == c % 2)
+                row.append('"').append(String.format("%016x", id * 31 + c)).append('"');
+            else
+                row.append((id * 7 + c) % 100000);
+        }
+        return row.append('}').toString();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.SnowpipeRest;
+
+import com.example.SnowpipeRest.core.SnowpipeRestException;
+
+public class SnowpipeRestArrowParseException extends SnowpipeRestException {
+    public SnowpipeRestArrowParseException(String message) {
+        super(BAD_REQUEST, message);
+    }
+
+    @Override
+    public SnowpipeRestException afterInserting(int inserted) {
+        return new SnowpipeRestArrowParseException(String.format("%s %d rows before the error were inserted.", getReason(), inserted));
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.SnowpipeRest;
+
+import com.example.SnowpipeRest.core.SnowpipeRestRowSource;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DateMilliVector;
+import org.apache.arrow.vector.Decimal256Vector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.FixedSizeBinaryVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.LargeVarBinaryVector;
+import org.apache.arrow.vector.LargeVarCharVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeMicroVector;
+import org.apache.arrow.vector.TimeMilliVector;
+import org.apache.arrow.vector.TimeNanoVector;
+import org.apache.arrow.vector.TimeSecVector;
+import org.apache.arrow.vector.TimeStampVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams the rows of an Arrow IPC stream body. The schema is read once and each column gets
+// a converter that reads its vector with the typed getter and yields the Java value the SDK
+// takes, so only the values themselves are allocated per row. The rows are kept in the replay
+// buffer after they are inserted, so each row is a new map; the Arrow buffers are reused.
+public class SnowpipeRestArrowReader implements SnowpipeRestRowSource {
+    private static final String PARSE_ERROR = "Unable to read body as an Arrow IPC stream.";
+
+    private interface Column {
+        Object get(int row);
+    }
+
+    private final BufferAllocator allocator;
+    private final ArrowStreamReader reader;
+    private final String[] names;
+    private final FieldVector[] vectors;
+    private final Column[] columns;
+    private final VectorSchemaRoot root;
+    private boolean done = false;
+    private int row = 0;
+    private int row_count = 0;
+    private long bytes_read = 0;
+    private long batch_bytes = 0;
+    private long last_row_bytes = 0;
+
+    public SnowpipeRestArrowReader(BufferAllocator parent, InputStream body) {
+        this.allocator = parent.newChildAllocator("snowpiperest-request", 0, Long.MAX_VALUE);
+        this.reader = new ArrowStreamReader(body, this.allocator);
+        try {
+            this.root = this.reader.getVectorSchemaRoot();
+        }
+        catch (IOException e) {
+            close();
+            throw new SnowpipeRestArrowParseException(PARSE_ERROR);
+        }
+        List<FieldVector> fields = this.root.getFieldVectors();
+        this.names = new String[fields.size()];
+        this.vectors = new FieldVector[fields.size()];
+        this.columns = new Column[fields.size()];
+        try {
+            for (int c = 0; c < this.columns.length; c++) {
+                this.vectors[c] = fields.get(c);
+                this.names[c] = this.vectors[c].getName();
+                this.columns[c] = column(this.vectors[c]);
+            }
+        }
+        catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String,Object> next() {
+        try {
+            while (this.row >= this.row_count) {
+                if (this.done || !this.reader.loadNextBatch()) {
+                    this.done = true;
+                    return null;
+                }
+                this.row = 0;
+                this.row_count = this.root.getRowCount();
+                long read = this.reader.bytesRead();
+                this.batch_bytes = read - this.bytes_read;
+                this.bytes_read = read;
+            }
+        }
+        catch (IOException e) {
+            throw new SnowpipeRestArrowParseException(PARSE_ERROR);
+        }
+        Map<String,Object> values = new HashMap<String,Object>((int)(this.columns.length / 0.75f) + 1);
+        for (int c = 0; c < this.columns.length; c++)
+            values.put(this.names[c], this.vectors[c].isNull(this.row) ? null : this.columns[c].get(this.row));
+        // Each row gets an even share of its record batch, and the last row the remainder
+        this.last_row_bytes = this.batch_bytes / this.row_count
+                + ((this.row == this.row_count - 1) ? this.batch_bytes % this.row_count : 0);
+        this.row++;
+        return values;
+    }
+
+    @Override
+    public long getLastRowBytes() {
+        return this.last_row_bytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.reader.close();
+        }
+        catch (IOException e) {
+            SnowpipeRestRepository.logger.info(String.format("Unable to close Arrow reader: %s", e.getMessage()));
+        }
+        this.allocator.close();
+    }
+
+    private static Column column(FieldVector vector) {
+        if (vector instanceof BitVector v)
+            return i -> v.get(i) != 0;
+        if (vector instanceof TinyIntVector v)
+            return i -> (int)v.get(i);
+        if (vector instanceof SmallIntVector v)
+            return i -> (int)v.get(i);
+        if (vector instanceof IntVector v)
+            return i -> v.get(i);
+        if (vector instanceof BigIntVector v)
+            return i -> v.get(i);
+        if (vector instanceof Float4Vector v)
+            return i -> v.get(i);
+        if (vector instanceof Float8Vector v)
+            return i -> v.get(i);
+        if (vector instanceof DecimalVector v)
+            return v::getObject;
+        if (vector instanceof Decimal256Vector v)
+            return v::getObject;
+        if (vector instanceof VarCharVector v)
+            return i -> new String(v.get(i), StandardCharsets.UTF_8);
+        if (vector instanceof LargeVarCharVector v)
+            return i -> new String(v.get(i), StandardCharsets.UTF_8);
+        if (vector instanceof VarBinaryVector v)
+            return v::get;
+        if (vector instanceof LargeVarBinaryVector v)
+            return v::get;
+        if (vector instanceof FixedSizeBinaryVector v)
+            return v::get;
+        if (vector instanceof DateDayVector v)
+            return i -> LocalDate.ofEpochDay(v.get(i));
+        if (vector instanceof DateMilliVector v)
+            return i -> LocalDate.ofEpochDay(Math.floorDiv(v.get(i), 86400000L));
+        if (vector instanceof TimeSecVector v)
+            return i -> LocalTime.ofSecondOfDay(v.get(i));
+        if (vector instanceof TimeMilliVector v)
+            return i -> LocalTime.ofNanoOfDay(v.get(i) * 1000000L);
+        if (vector instanceof TimeMicroVector v)
+            return i -> LocalTime.ofNanoOfDay(v.get(i) * 1000L);
+        if (vector instanceof TimeNanoVector v)
+            return i -> LocalTime.ofNanoOfDay(v.get(i));
+        if (vector instanceof TimeStampVector v)
+            return timestamp(v);
+        // Structs, lists and maps come back as maps and lists, which the SDK takes for semi-structured columns
+        return vector::getObject;
+    }
+
+    // Timestamps with a time zone become OffsetDateTime (TIMESTAMP_TZ / TIMESTAMP_LTZ), without one LocalDateTime (TIMESTAMP_NTZ)
+    private static Column timestamp(TimeStampVector v) {
+        ArrowType.Timestamp type = (ArrowType.Timestamp)v.getField().getType();
+        long per_second;
+        switch (type.getUnit()) {
+            case SECOND: per_second = 1L; break;
+            case MILLISECOND: per_second = 1000L; break;
+            case MICROSECOND: per_second = 1000000L; break;
+            default: per_second = 1000000000L; break;
+        }
+        long nanos_per_unit = 1000000000L / per_second;
+        String tz = type.getTimezone();
+        if (null == tz || tz.isEmpty()) {
+            return i -> {
+                long t = v.get(i);
+                return LocalDateTime.ofEpochSecond(Math.floorDiv(t, per_second), (int)(Math.floorMod(t, per_second) * nanos_per_unit), ZoneOffset.UTC);
+            };
+        }
+        ZoneId zone;
+        try {
+            zone = ZoneId.of(tz);
+        }
+        catch (DateTimeException e) {
+            throw new SnowpipeRestArrowParseException(String.format("Unsupported time zone in column %s: %s", v.getName(), tz));
+        }
+        return i -> {
+            long t = v.get(i);
+            return OffsetDateTime.ofInstant(Instant.ofEpochSecond(Math.floorDiv(t, per_second), Math.floorMod(t, per_second) * nanos_per_unit), zone);
+        };
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.SnowpipeRest;
+
+import com.example.SnowpipeRest.core.SnowpipeRestPayloadTooLargeException;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+// Undoes the Content-Encoding of a request body as it is read, so a compressed body goes
+// straight into the JSON parser. A compressed body may only expand to max_bytes, to guard
+// against zip bombs.
+public class SnowpipeRestBodyDecoder {
+    public static final String IDENTITY = "identity";
+    public static final String GZIP = "gzip";
+    public static final String X_GZIP = "x-gzip";
+    public static final String ZSTD = "zstd";
+    private static final int BUFFER_SIZE = 65536;
+
+    private SnowpipeRestBodyDecoder() {
+    }
+
+    // Codings are listed in the order they were applied, so they are undone last to first
+    public static InputStream decode(InputStream body, String content_encoding, long max_bytes) {
+        if (null == content_encoding || content_encoding.isBlank())
+            return body;
+        String[] codings = content_encoding.split(",");
+        InputStream in = body;
+        boolean compressed = false;
+        try {
+            for (int i = codings.length - 1; i >= 0; i--) {
+                String coding = codings[i].trim().toLowerCase();
+                if (GZIP.equals(coding) || X_GZIP.equals(coding)) {
+                    in = new GZIPInputStream(in, BUFFER_SIZE);
+                    compressed = true;
+                }
+                else if (ZSTD.equals(coding)) {
+                    in = new ZstdInputStream(in);
+                    compressed = true;
+                }
+                else if (!IDENTITY.equals(coding) && !coding.isEmpty()) {
+                    throw new SnowpipeRestUnsupportedEncodingException(String.format("Unsupported Content-Encoding: %s", coding));
+                }
+            }
+        }
+        catch (IOException e) {
+            closeQuietly(in);
+            throw new SnowpipeRestInvalidParameterException(String.format("Unable to decode body as %s: %s", content_encoding, e.getMessage()));
+        }
+        catch (RuntimeException e) {
+            closeQuietly(in);
+            throw e;
+        }
+        return (compressed && max_bytes > 0) ? new Limited(in, max_bytes) : in;
+    }
+
+    public static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            SnowpipeRestRepository.logger.info(String.format("Unable to close request body: %s", e.getMessage()));
+        }
+    }
+
+    // Fails the request once more than max_bytes have been read
+    static class Limited extends FilterInputStream {
+        private final long max_bytes;
+        private long count = 0;
+
+        Limited(InputStream in, long max_bytes) {
+            super(in);
+            this.max_bytes = max_bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0)
+                count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) {
+            this.count += n;
+            if (this.count > this.max_bytes)
+                throw new SnowpipeRestPayloadTooLargeException(String.format("Decompressed body is larger than %d bytes.", this.max_bytes));
+        }
+    }
+}
@@ -1,39 +1,143 @@
 package com.example.SnowpipeRest;
 
+import com.example.SnowpipeRest.core.SnowpipeInsertResponse;
+import com.example.SnowpipeRest.core.SnowpipeRestBackpressureException;
+import com.example.SnowpipeRest.core.SnowpipeRestException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.web.bind.annotation.PutMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/snowpipe")
 public class SnowpipeRestController {
+    public static final String ACK_ACCEPTED = "accepted";
+    public static final String ACK_COMMITTED = "committed";
+
     @Autowired
     private SnowpipeRestRepository repos;
 
+    @Value("${snowpiperest.ack_mode}")
+    private String default_ack_mode;
+
+    @Value("${snowpiperest.commit_timeout}")
+    private long commit_timeout;
+
+    @Value("${snowpiperest.max_decoded_bytes}")
+    private long max_decoded_bytes;
+
+    @Value("${snowpiperest.errors_limit}")
+    private int default_errors_limit;
+
+    private final JsonFactory json = new JsonFactory();
+
+    // With ack=accepted the response is sent once the rows are buffered in the channel.
+    // With ack=committed it is sent when Snowflake has committed them, without holding a
+    // servlet thread while waiting; if that takes longer than the commit timeout, 202 is returned.
     @PutMapping("/insert/{database}/{schema}/{table}")
-    @ResponseBody
-    public String insert(@PathVariable String database, @PathVariable String schema, @PathVariable String table, @RequestBody String body) {
-        SnowpipeInsertResponse sp_resp = repos.saveToSnowflake(database, schema, table, body);
-        return sp_resp.toString();
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> insert(@PathVariable String database, @PathVariable String schema, @PathVariable String table,
+                                                            @RequestParam(name = "ack", required = false) String ack,
+                                                            @RequestParam(name = "errors_limit", required = false) Integer errors_limit,
+                                                            @RequestHeader(name = HttpHeaders.CONTENT_TYPE, required = false) String content_type,
+                                                            @RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String content_encoding,
+                                                            InputStream body) {
+        String ack_mode = ackMode(ack);
+        boolean ndjson = isNdjson(content_type);
+        InputStream decoded = SnowpipeRestBodyDecoder.decode(body, content_encoding, this.max_decoded_bytes);
+        SnowpipeInsertResponse sp_resp;
+        try {
+            sp_resp = repos.saveToSnowflake(database, schema, table, decoded, ndjson, errorsLimit(errors_limit));
+        }
+        finally {
+            SnowpipeRestBodyDecoder.closeQuietly(decoded);
+        }
+        return respond(sp_resp, ack_mode);
+    }
+
+    // The body is an Arrow IPC stream (application/vnd.apache.arrow.stream) of record batches whose columns are the table's columns
+    @PutMapping("/insert_arrow/{database}/{schema}/{table}")
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> insertArrow(@PathVariable String database, @PathVariable String schema, @PathVariable String table,
+                                                                 @RequestParam(name = "ack", required = false) String ack,
+                                                                 @RequestParam(name = "errors_limit", required = false) Integer errors_limit,
+                                                                 @RequestHeader(name = HttpHeaders.CONTENT_ENCODING, required = false) String content_encoding,
+                                                                 InputStream body) {
+        String ack_mode = ackMode(ack);
+        InputStream decoded = SnowpipeRestBodyDecoder.decode(body, content_encoding, this.max_decoded_bytes);
+        SnowpipeInsertResponse sp_resp;
+        try {
+            sp_resp = repos.saveArrowToSnowflake(database, schema, table, decoded, errorsLimit(errors_limit));
+        }
+        finally {
+            SnowpipeRestBodyDecoder.closeQuietly(decoded);
+        }
+        return respond(sp_resp, ack_mode);
+    }
+
+    private String ackMode(String ack) {
+        String ack_mode = (null == ack) ? this.default_ack_mode : ack;
+        if (!ACK_ACCEPTED.equals(ack_mode) && !ACK_COMMITTED.equals(ack_mode))
+            throw new SnowpipeRestInvalidParameterException(String.format("Unknown ack mode: %s", ack_mode));
+        return ack_mode;
+    }
+
+    // errors_limit caps the error rows in the response, 0 giving just the counts; negative means no limit
+    private int errorsLimit(Integer errors_limit) {
+        return (null == errors_limit) ? this.default_errors_limit : errors_limit;
+    }
+
+    private CompletableFuture<ResponseEntity<StreamingResponseBody>> respond(SnowpipeInsertResponse sp_resp, String ack_mode) {
+        if (ACK_ACCEPTED.equals(ack_mode))
+            return CompletableFuture.completedFuture(body(HttpStatus.OK, sp_resp));
+        return repos.awaitCommit(sp_resp)
+                .thenApply(r -> body(HttpStatus.OK, r))
+                .completeOnTimeout(body(HttpStatus.ACCEPTED, sp_resp), commit_timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // The response is written straight to the servlet output stream
+    private ResponseEntity<StreamingResponseBody> body(HttpStatus status, SnowpipeInsertResponse sp_resp) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> sp_resp.writeTo(this.json, out));
     }
 
-    @ExceptionHandler(SnowpipeRestTableNotFoundException.class)
-    @ResponseStatus(HttpStatus.NOT_FOUND)
-    public ResponseEntity<String> handleTableNotFound(SnowpipeRestTableNotFoundException e) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+    // Bodies sent as application/x-ndjson hold one JSON object per line; anything else is read as a JSON array
+    private boolean isNdjson(String content_type) {
+        if (null == content_type || content_type.isEmpty())
+            return false;
+        try {
+            return MediaType.APPLICATION_NDJSON.includes(MediaType.parseMediaType(content_type));
+        }
+        catch (InvalidMediaTypeException e) {
+            throw new SnowpipeRestInvalidParameterException(String.format("Invalid Content-Type: %s", content_type));
+        }
     }
 
-    @ExceptionHandler(SnowpipeRestJsonParseException.class)
-    @ResponseStatus(HttpStatus.NOT_FOUND)
-    public ResponseEntity<String> handleBadJson(SnowpipeRestJsonParseException e) {
-        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    // Failures from the ingest engine carry their status. The body is the status and reason,
+    // as Spring writes them for a ResponseStatusException; backpressure adds a Retry-After.
+    @ExceptionHandler(SnowpipeRestException.class)
+    public ResponseEntity<String> handleIngestError(SnowpipeRestException e) {
+        HttpStatus status = HttpStatus.valueOf(e.getStatus());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+        if (e instanceof SnowpipeRestBackpressureException be)
+            response.header(HttpHeaders.RETRY_AFTER, String.valueOf(be.getRetry_after()));
+        return response.body(String.format("%s \"%s\"", status, e.getReason()));
     }
 }
@@ -3,8 +3,8 @@ package com.example.SnowpipeRest;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
-public class SnowpipeRestJsonParseException extends ResponseStatusException {
-    public SnowpipeRestJsonParseException(String message) {
+public class SnowpipeRestInvalidParameterException extends ResponseStatusException {
+    public SnowpipeRestInvalidParameterException(String message) {
         super(HttpStatus.BAD_REQUEST, message);
     }
 }
@@ -0,0 +1,178 @@
+package com.example.SnowpipeRest;
+
+import com.example.SnowpipeRest.core.IngestMetrics;
+import com.example.SnowpipeRest.core.SnowpipeRestTableState;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+// Meters for each stage of a table's insert path, so a slowdown can be placed in parsing, in
+// the SDK or in Snowflake's commits. Every meter is tagged with the table.
+public class SnowpipeRestMetrics implements IngestMetrics {
+    private static final String TABLE_TAG = "table";
+
+    // Time reading a request body into rows, per request
+    final Timer parse;
+    // Rows and bytes of each batch handed to a channel
+    final DistributionSummary batch_rows;
+    final DistributionSummary batch_bytes;
+    // Time in the SDK's insertRows
+    final Timer insert_rows;
+    // Time reopening an invalidated channel
+    final Timer reopen;
+    // Time replaying a channel's buffer, and the batches replayed each time
+    final Timer replay;
+    final DistributionSummary replay_batches;
+    // Time from a channel's invalidation until it is caught up (or given up on), and the attempts taken
+    final Timer recovered;
+    final Timer recovery_failed;
+    final DistributionSummary recovery_attempts;
+    // Rows accepted by the channel, and rows rejected by schema conversion or by the SDK
+    final Counter rows_inserted;
+    final Counter rows_rejected;
+    // Rows inserted into every table
+    private final Counter total_inserted;
+
+    SnowpipeRestMetrics(MeterRegistry registry, SnowpipeRestTableState table, Counter total_inserted) {
+        String t = table.getKey();
+        this.total_inserted = total_inserted;
+        this.parse = Timer.builder("snowpiperest.parse")
+                .description("Time reading request bodies into rows")
+                .tag(TABLE_TAG, t)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.batch_rows = DistributionSummary.builder("snowpiperest.batch.rows")
+                .description("Rows per batch inserted into a channel")
+                .baseUnit("rows")
+                .tag(TABLE_TAG, t)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.batch_bytes = DistributionSummary.builder("snowpiperest.batch.bytes")
+                .description("Request bytes per batch inserted into a channel")
+                .baseUnit("bytes")
+                .tag(TABLE_TAG, t)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.insert_rows = Timer.builder("snowpiperest.insert_rows")
+                .description("Time in the SDK's insertRows")
+                .tag(TABLE_TAG, t)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.reopen = Timer.builder("snowpiperest.channel.reopen")
+                .description("Time reopening invalidated channels")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        this.replay = Timer.builder("snowpiperest.replay")
+                .description("Time replaying replay buffers into reopened channels")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        this.replay_batches = DistributionSummary.builder("snowpiperest.replay.batches")
+                .description("Batches replayed per replay")
+                .baseUnit("batches")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        this.recovered = Timer.builder("snowpiperest.channel.recovery")
+                .description("Time from a channel's invalidation until it is reopened and replayed")
+                .tag(TABLE_TAG, t)
+                .tag("outcome", "recovered")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.recovery_failed = Timer.builder("snowpiperest.channel.recovery")
+                .description("Time from a channel's invalidation until it is reopened and replayed")
+                .tag(TABLE_TAG, t)
+                .tag("outcome", "failed")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.recovery_attempts = DistributionSummary.builder("snowpiperest.channel.recovery.attempts")
+                .description("Reopen and replay attempts per recovery")
+                .baseUnit("attempts")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        this.rows_inserted = Counter.builder("snowpiperest.rows")
+                .description("Rows inserted into channels or rejected")
+                .tag(TABLE_TAG, t)
+                .tag("outcome", "inserted")
+                .register(registry);
+        this.rows_rejected = Counter.builder("snowpiperest.rows")
+                .description("Rows inserted into channels or rejected")
+                .tag(TABLE_TAG, t)
+                .tag("outcome", "rejected")
+                .register(registry);
+    }
+
+    @Override
+    public void parsed(long nanos) {
+        this.parse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void batch(int rows, long bytes) {
+        this.batch_rows.record(rows);
+        this.batch_bytes.record(bytes);
+    }
+
+    @Override
+    public void inserted(long nanos) {
+        this.insert_rows.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rows(long inserted, long rejected) {
+        this.rows_inserted.increment(inserted);
+        this.rows_rejected.increment(rejected);
+        this.total_inserted.increment(inserted);
+    }
+
+    @Override
+    public void reopened(long nanos) {
+        this.reopen.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void replayed(long nanos, int batches) {
+        this.replay.record(nanos, TimeUnit.NANOSECONDS);
+        this.replay_batches.record(batches);
+    }
+
+    @Override
+    public void recovered(long nanos, int attempts) {
+        this.recovered.record(nanos, TimeUnit.NANOSECONDS);
+        this.recovery_attempts.record(attempts);
+    }
+
+    @Override
+    public void recoveryFailed(long nanos, int attempts) {
+        this.recovery_failed.record(nanos, TimeUnit.NANOSECONDS);
+        this.recovery_attempts.record(attempts);
+    }
+
+    // Gauges read the table's channels, so they are registered once the table is open
+    static void registerGauges(MeterRegistry registry, SnowpipeRestTableState table) {
+        String t = table.getKey();
+        Gauge.builder("snowpiperest.buffer.rows", table, SnowpipeRestTableState::getBufferedRows)
+                .description("Rows sent to Snowflake and not yet committed, held for replay")
+                .baseUnit("rows")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        Gauge.builder("snowpiperest.buffer.bytes", table, SnowpipeRestTableState::getBufferedBytes)
+                .description("Request bytes of the rows held for replay")
+                .baseUnit("bytes")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        Gauge.builder("snowpiperest.commit_lag", table, SnowpipeRestTableState::getCommitLag)
+                .description("Batches sent to Snowflake past the last committed offset token")
+                .baseUnit("batches")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+        Gauge.builder("snowpiperest.channel.recovering", table, SnowpipeRestTableState::getRecovering)
+                .description("Channels being reopened and replayed")
+                .baseUnit("channels")
+                .tag(TABLE_TAG, t)
+                .register(registry);
+    }
+}
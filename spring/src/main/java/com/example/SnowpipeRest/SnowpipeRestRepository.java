@@ -1,61 +1,61 @@
 package com.example.SnowpipeRest;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-
-import net.snowflake.ingest.streaming.InsertValidationResponse;
-import net.snowflake.ingest.streaming.OpenChannelRequest;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestChannel;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClient;
-import net.snowflake.ingest.streaming.SnowflakeStreamingIngestClientFactory;
-import net.snowflake.ingest.utils.ParameterProvider;
-import net.snowflake.ingest.utils.SFException;
-
-import java.util.Map;
-import java.util.List;
+import com.example.SnowpipeRest.core.IngestBackend;
+import com.example.SnowpipeRest.core.IngestMetrics;
+import com.example.SnowpipeRest.core.SnowpipeInsertResponse;
+import com.example.SnowpipeRest.core.SnowpipeRestEngine;
+import com.example.SnowpipeRest.core.SnowpipeRestMemoryBudget;
+import com.example.SnowpipeRest.core.SnowpipeRestSettings;
+import com.example.SnowpipeRest.core.SnowpipeRestTableState;
+
+import java.io.InputStream;
 import java.util.Properties;
-import java.util.Set;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.UUID;
 import java.lang.management.ManagementFactory;
-import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import com.google.common.collect.Lists;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 
 import javax.annotation.PostConstruct;
-import javax.management.MBeanAttributeInfo;
-import javax.management.MBeanInfo;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 
+// Runs the shared ingest engine with the snowpiperest.* properties, records its metrics with
+// Micrometer, and reads Arrow bodies, which only this service accepts.
+// As a lifecycle bean in the last phase, it is stopped before the web server, so the engine
+// drains (answering new inserts with 503) while requests can still be answered.
 @Component
-public class SnowpipeRestRepository {
+public class SnowpipeRestRepository implements SmartLifecycle {
     static Logger logger = LoggerFactory.getLogger(SnowpipeRestRepository.class);
     
-    private ObjectMapper objectMapper = new ObjectMapper();
-    private SnowflakeStreamingIngestClient snowpipe_client;
-    private Map<String, SnowflakeStreamingIngestChannel> snowpipe_channels = new HashMap<String, SnowflakeStreamingIngestChannel>();
-    private Map<String, Integer> insert_count = new HashMap<String, Integer>();
-    private Map<String, Map<String,List<Map<String,Object>>>> buffers = new HashMap<String,Map<String,List<Map<String,Object>>>>();
-    private String suffix = UUID.randomUUID().toString();
-    private Map<String, CompletableFuture<Void>> purgers = new HashMap<String, CompletableFuture<Void>>();
+    private SnowpipeRestEngine engine;
     private final Counter insert_row_count;
+    private ScheduledExecutorService reporter;
+    private BufferAllocator arrow_allocator;
+    private final MeterRegistry meter_registry;
+    private volatile boolean running = false;
+
+    // A backend defined as a bean (e.g., by a load test) is used in place of snowpiperest.backend
+    @Autowired(required = false)
+    private IngestBackend backend;
+
+    @Value("${snowpiperest.backend}")
+    private String backend_type;
+
+    @Value("${snowpiperest.local_backend}")
+    private String local_backend;
 
     @Value("${snowpiperest.batch_size}")
     private int batch_size;
@@ -63,9 +63,87 @@ public class SnowpipeRestRepository {
     @Value("${snowpiperest.purge_rate}")
     private int purge_rate;
 
+    @Value("${snowpiperest.purge_rate_idle}")
+    private int purge_rate_idle;
+
     @Value("${snowpiperest.disable_buffering}")
     private int disable_buffering;
 
+    @Value("${snowpiperest.max_buffer_bytes}")
+    private long max_buffer_bytes;
+
+    @Value("${snowpiperest.buffer_wait}")
+    private long buffer_wait;
+
+    @Value("${snowpiperest.max_linger_ms}")
+    private long max_linger_ms;
+
+    @Value("${snowpiperest.max_batch_rows}")
+    private int max_batch_rows;
+
+    @Value("${snowpiperest.max_batch_bytes}")
+    private long max_batch_bytes;
+
+    @Value("${snowpiperest.typed_rows}")
+    private int typed_rows;
+
+    @Value("${snowpiperest.global_budget_bytes}")
+    private long global_budget_bytes;
+
+    @Value("${snowpiperest.table_budget_bytes}")
+    private long table_budget_bytes;
+
+    @Value("${snowpiperest.admission_mode}")
+    private String admission_mode;
+
+    @Value("${snowpiperest.admission_wait}")
+    private long admission_wait;
+
+    @Value("${snowpiperest.retry_after}")
+    private long retry_after;
+
+    @Value("${snowpiperest.instance_id}")
+    private String suffix;
+
+    @Value("${snowpiperest.wal_dir}")
+    private String wal_dir;
+
+    @Value("${snowpiperest.wal_segment_bytes}")
+    private int wal_segment_bytes;
+
+    @Value("${snowpiperest.wal_sync}")
+    private int wal_sync;
+
+    @Value("${snowpiperest.pipelined_dispatch}")
+    private int pipelined_dispatch;
+
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtual_threads;
+
+    @Value("${snowpiperest.channels_per_table}")
+    private int channels_per_table;
+
+    @Value("${snowpiperest.channel_routing}")
+    private String channel_routing;
+
+    @Value("${snowpiperest.partition_key}")
+    private String partition_key;
+
+    @Value("${snowpiperest.replay_rate}")
+    private long replay_rate;
+
+    @Value("${snowpiperest.recovery_attempts}")
+    private int recovery_attempts;
+
+    @Value("${snowpiperest.recovery_backoff}")
+    private long recovery_backoff;
+
+    @Value("${snowpiperest.recovery_wait}")
+    private long recovery_wait;
+
+    @Value("${snowpiperest.drain_timeout}")
+    private long drain_timeout;
+
     @Value("${snowflake.url}")
     private String snowflake_url;
 
@@ -80,6 +158,7 @@ public class SnowpipeRestRepository {
 
     public SnowpipeRestRepository(MeterRegistry registry) {
         // set up actuator metrics
+        this.meter_registry = registry;
         insert_row_count = Counter.builder("rows.inserted")
                                     .description("Number of rows created")
                                     .register(registry);
@@ -102,27 +181,42 @@ public class SnowpipeRestRepository {
     @Value("${snowpiperest.io_time_cpu_ratio}")
     private long IO_TIME_CPU_RATIO;
 
-    public void setParameters(Properties props) {
-        logger.info(String.format("Setting Snowpipe Parameters"));
-        logger.info(String.format("INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE: %d", this.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE));
-        logger.info(String.format("MAX_CLIENT_LAG: %d", this.MAX_CLIENT_LAG));
-        logger.info(String.format("MAX_CHANNEL_SIZE_IN_BYTES: %d", this.MAX_CHANNEL_SIZE_IN_BYTES));
-        logger.info(String.format("MAX_CHUNK_SIZE_IN_BYTES: %d", this.MAX_CHUNK_SIZE_IN_BYTES));
-        if (this.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE > 0)
-            props.put(ParameterProvider.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE, this.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE);
-        if (this.MAX_CLIENT_LAG > 0)
-            props.put(ParameterProvider.MAX_CLIENT_LAG, this.MAX_CLIENT_LAG);
-        if (this.MAX_CHANNEL_SIZE_IN_BYTES > 0)
-            props.put(ParameterProvider.MAX_CHANNEL_SIZE_IN_BYTES, this.MAX_CHANNEL_SIZE_IN_BYTES);
-        if (this.MAX_CHUNK_SIZE_IN_BYTES > 0)
-            props.put(ParameterProvider.MAX_CHUNK_SIZE_IN_BYTES, this.MAX_CHUNK_SIZE_IN_BYTES);
-        if (this.IO_TIME_CPU_RATIO > 0)
-            props.put(ParameterProvider.IO_TIME_CPU_RATIO, this.IO_TIME_CPU_RATIO);
-        props.put(ParameterProvider.ENABLE_SNOWPIPE_STREAMING_METRICS, true);
-        if (this.disable_buffering != 0)
-            logger.info("Disabling buffering");
+    private SnowpipeRestSettings makeSettings() {
+        return new SnowpipeRestSettings()
+                .setBatch_size(this.batch_size)
+                .setPurge_rate(this.purge_rate)
+                .setPurge_rate_idle(this.purge_rate_idle)
+                .setDisable_buffering(this.disable_buffering != 0)
+                .setMax_buffer_bytes(this.max_buffer_bytes)
+                .setBuffer_wait(this.buffer_wait)
+                .setMax_linger_ms(this.max_linger_ms)
+                .setMax_batch_rows(this.max_batch_rows)
+                .setMax_batch_bytes(this.max_batch_bytes)
+                .setTyped_rows(this.typed_rows != 0)
+                .setGlobal_budget_bytes(this.global_budget_bytes)
+                .setTable_budget_bytes(this.table_budget_bytes)
+                .setAdmission_mode(this.admission_mode)
+                .setAdmission_wait(this.admission_wait)
+                .setRetry_after(this.retry_after)
+                .setInstance_id(this.suffix)
+                .setWal_dir(this.wal_dir)
+                .setWal_segment_bytes(this.wal_segment_bytes)
+                .setWal_sync(this.wal_sync != 0)
+                .setPipelined_dispatch(this.pipelined_dispatch != 0)
+                .setVirtual_threads(this.virtual_threads)
+                .setChannels_per_table(this.channels_per_table)
+                .setChannel_routing(this.channel_routing)
+                .setPartition_key(this.partition_key)
+                .setReplay_rate(this.replay_rate)
+                .setRecovery_attempts(this.recovery_attempts)
+                .setRecovery_backoff(this.recovery_backoff)
+                .setRecovery_wait(this.recovery_wait)
+                .setInsert_throttle_threshold_in_percentage(this.INSERT_THROTTLE_THRESHOLD_IN_PERCENTAGE)
+                .setMax_client_lag(this.MAX_CLIENT_LAG)
+                .setMax_channel_size_in_bytes(this.MAX_CHANNEL_SIZE_IN_BYTES)
+                .setMax_chunk_size_in_bytes(this.MAX_CHUNK_SIZE_IN_BYTES)
+                .setIo_time_cpu_ratio(this.IO_TIME_CPU_RATIO);
     }
-    //------------------------------
 
     @PostConstruct
     private void init() {
@@ -132,251 +226,102 @@ public class SnowpipeRestRepository {
         props.put("user", snowflake_user);
         props.put("role", snowflake_role);
         props.put("private_key", snowflake_private_key);
-        setParameters(props);
-        // Connect to Snowflake with credentials.
+        if (null == this.backend)
+            this.backend = IngestBackend.of(this.backend_type, this.local_backend);
+        if (this.backend.needsCredentials() && (this.snowflake_url.isEmpty() || this.snowflake_user.isEmpty() || this.snowflake_private_key.isEmpty()))
+            throw new IllegalArgumentException("SNOWFLAKE_URL, SNOWFLAKE_USER and SNOWFLAKE_PRIVATE_KEY must be set");
+        this.arrow_allocator = new RootAllocator();
+        this.engine = new SnowpipeRestEngine(makeSettings(), this.backend, props, new IngestMetrics.Factory() {
+            @Override
+            public IngestMetrics forTable(SnowpipeRestTableState table) {
+                return new SnowpipeRestMetrics(meter_registry, table, insert_row_count);
+            }
+
+            @Override
+            public void opened(SnowpipeRestTableState table) {
+                registerBudgetGauges(table.getBudget(), table.getKey());
+                SnowpipeRestMetrics.registerGauges(meter_registry, table);
+            }
+        });
+        registerBudgetGauges(this.engine.getGlobalBudget(), "global");
         try {
-            // Make Snowflake Streaming Ingest Client
-            this.snowpipe_client = SnowflakeStreamingIngestClientFactory.builder("SNOWPIPE_REST_" + this.suffix)
-                    .setProperties(props).build();
-            startReporter();
+            startReporter(this.engine.getClientName());
         } catch (Exception e) {
-            // Handle Exception for Snowpipe Streaming objects
             throw new RuntimeException(e);
         }
     }
 
-    private String makeKey(String database, String schema, String table) {
-        return String.format("%s.%s.%s", database.toUpperCase(), schema.toUpperCase(), table.toUpperCase());
+    @Override
+    public void start() {
+        this.running = true;
     }
 
-    // Gets or creates and stores Snowflake Streaming Ingest Channel for the table
-    private SnowflakeStreamingIngestChannel getIngestChannel(String database, String schema, String table) {
-        if (null == database)
-            throw new RuntimeException("Must specify database");
-        if (null == schema)
-            throw new RuntimeException("Must specify schema");
-        if (null == table)
-            throw new RuntimeException("Must specify table");
-        String key = makeKey(database, schema, table);
-        if (this.snowpipe_channels.containsKey(key))
-            return this.snowpipe_channels.get(key);
-
+    // Drains the engine within snowpiperest.drain_timeout, then stops its threads and the client
+    @Override
+    public void stop() {
+        if (!this.running)
+            return;
+        this.running = false;
+        logger.info(String.format("Draining, for up to %d ms", this.drain_timeout));
+        this.engine.drain(this.drain_timeout);
+        this.reporter.shutdownNow();
         try {
-            if (this.purgers.containsKey(key))
-                this.purgers.get(key).cancel(true);
-            OpenChannelRequest request1 = OpenChannelRequest.builder("SNOWPIPE_REST_CHANNEL_" + this.suffix)
-                    .setDBName(database)
-                    .setSchemaName(schema)
-                    .setTableName(table)
-                    .setOnErrorOption(OpenChannelRequest.OnErrorOption.CONTINUE)
-                    .build();
-            SnowflakeStreamingIngestChannel channel = this.snowpipe_client.openChannel(request1);
-            this.snowpipe_channels.put(key, channel);
-            this.insert_count.put(key, 0);
-            if (!this.buffers.containsKey(key))
-                this.buffers.put(key, new ConcurrentHashMap<String,List<Map<String,Object>>>());
-
-            this.purgers.put(key, CompletableFuture.runAsync(() -> purger(key)));
-
-            return channel;
-        } catch (Exception e) {
-            // Handle Exception for Snowpipe Streaming objects
-            e.printStackTrace();
-            throw new SnowpipeRestTableNotFoundException(String.format("Table not found (or no permissions): %s.%s.%s", database.toUpperCase(), schema.toUpperCase(), table.toUpperCase()));
+            this.engine.close();
         }
-    }
-
-    private SnowflakeStreamingIngestChannel makeChannelValid(String database, String schema, String table) {
-        String key = makeKey(database, schema, table);
-        logger.info(String.format("Making channel valid: %s", key));
-        if (this.snowpipe_channels.containsKey(key)) {
-            SnowflakeStreamingIngestChannel channel = this.snowpipe_channels.get(key);
-            if (channel.isValid())
-                return channel;
-            else
-                this.snowpipe_channels.remove(key);
+        catch (Exception e) {
+            logger.error("Unable to close the Snowpipe Streaming client", e);
         }
-        SnowflakeStreamingIngestChannel channel = getIngestChannel(database, schema, table);
-        replayBuffer(database, schema, table);
-        return channel;
-    }
-
-    public SnowpipeInsertResponse saveToSnowflake(String database, String schema, String table, String body) {
-        // Parse body
-        List<Object> rowStrings;
-        List<Map<String,Object>> rows;
         try {
-            // Parse JSON body
-            JsonNode jsonNode = this.objectMapper.readTree(body);
-            // List of strings for error reporting
-            rowStrings = objectMapper.convertValue(jsonNode, new TypeReference<List<Object>>() {});
-            // List of Map<String,Object> for inserting
-            rows = objectMapper.convertValue(jsonNode, new TypeReference<List<Map<String, Object>>>(){});
+            this.arrow_allocator.close();
         }
-        catch (JsonProcessingException je) {
-            // throw new RuntimeException("Unable to parse body as list of JSON strings.");
-            throw new SnowpipeRestJsonParseException("Unable to parse body as list of JSON strings.");
+        catch (IllegalStateException e) {
+            logger.warn(String.format("Arrow memory still allocated at shutdown: %s", e.getMessage()));
         }
-
-        // Get ingest channel
-        this.getIngestChannel(database, schema, table); // Need to get the channel so the buffer and count are created
-        Map<String,List<Map<String,Object>>> buff = this.buffers.get(makeKey(database, schema, table));
-        String insert_count_key = makeKey(database, schema, table);
-        int insert_count = this.insert_count.get(insert_count_key);
-
-        // Issue the insert
-        List<List<Map<String,Object>>> batches = Collections.singletonList(rows); // = Lists.partition(rows, batch_size);
-        List<List<Object>> batchStrings = Collections.singletonList(rowStrings); // = Lists.partition(rowStrings, batch_size);
-        if (this.batch_size > 0) {
-            logger.info(String.format("Batching..."));
-            batches = Lists.partition(rows, batch_size);
-            batchStrings = Lists.partition(rowStrings, batch_size);    
-        }
-        SnowpipeInsertResponse sp_resp = new SnowpipeInsertResponse(0, 0, 0);
-        logger.info(String.format("Inserting %d batches.", batches.size()));
-        for (int i = 0; i < batches.size(); i++) {
-            insert_count++;
-            String new_token = String.valueOf(insert_count);
-            InsertValidationResponse resp = insertRows(batches.get(i), new_token, database, schema, table);
-            if (this.disable_buffering != 0)
-                buff.put(new_token, batches.get(i));
-            this.insert_count.put(insert_count_key, insert_count);
-
-            // Make response
-            insert_row_count.increment(batches.get(i).size() - resp.getErrorRowCount());
-            sp_resp.add_metrics(batches.get(i).size(), batches.get(i).size() - resp.getErrorRowCount(), resp.getErrorRowCount());
-            for (InsertValidationResponse.InsertError insertError : resp.getInsertErrors()) {
-                int idx = (int)insertError.getRowIndex();
-                try {
-                    sp_resp.addError(idx, objectMapper.writeValueAsString(batchStrings.get(i).get(idx)), insertError.getMessage());
-                }
-                catch (JsonProcessingException je) {
-                    throw new RuntimeException(je);
-                }    
-            }
-        }
-        return sp_resp;
     }
 
-    private InsertValidationResponse insertRows(List<Map<String,Object>> batch, String new_token, 
-                                                String database, String schema, String table) {
-        SnowflakeStreamingIngestChannel channel = this.getIngestChannel(database, schema, table);
-        InsertValidationResponse resp;
-        try {
-            resp = channel.insertRows(batch, new_token);
-        }
-        catch (SFException ex) {
-            makeChannelValid(database, schema, table);
-            resp = insertRows(batch, new_token, database, schema, table);
-        }
-        return resp;
+    @Override
+    public boolean isRunning() {
+        return this.running;
     }
 
-    private void purger(String key) {
-        try {
-            while (true) {
-                freePlayed(key);
-                Thread.sleep(this.purge_rate);
-            }
-        }        
-        catch (Exception e) {
-            return;
-        }
+    private void registerBudgetGauges(SnowpipeRestMemoryBudget budget, String scope) {
+        Gauge.builder("snowpiperest.memory.used", budget, SnowpipeRestMemoryBudget::getUsed)
+                .description("Bytes of request rows admitted and not yet freed")
+                .baseUnit("bytes")
+                .tag("scope", scope)
+                .register(this.meter_registry);
+        Gauge.builder("snowpiperest.memory.limit", budget, SnowpipeRestMemoryBudget::getLimit)
+                .description("Memory budget for request rows")
+                .baseUnit("bytes")
+                .tag("scope", scope)
+                .register(this.meter_registry);
     }
 
-    private void freePlayed(String key) {
-        SnowflakeStreamingIngestChannel channel = this.snowpipe_channels.get(key);
-        String last_token_str = channel.getLatestCommittedOffsetToken();
-        int last_token = -1;
-        if (null == last_token_str)
-            return;
-        try {
-            last_token = Integer.parseInt(last_token_str);
-        }
-        catch (Exception e) {
-            logger.info(String.format("XXXX: %s", e.getMessage()));
-        }
-        Map<String,List<Map<String,Object>>> buff = this.buffers.get(key);
-        int ttoken = last_token;
-        List<String> keys = buff.keySet().stream().filter(k -> Integer.parseInt(k) <= ttoken).toList();
-        if (keys.size() > 0) {
-            logger.info(String.format("Purging from %s: %s", key, keys));
-            for (String k : keys) {
-                buff.remove(k);
-            }
-        }
+    public SnowpipeInsertResponse saveToSnowflake(String database, String schema, String table, InputStream body) {
+        return saveToSnowflake(database, schema, table, body, false, -1);
     }
 
-    private void replayBuffer(String database, String schema, String table) {
-        String key = makeKey(database, schema, table);
-        logger.info(String.format("Replaying buffer: %s", key));
-        freePlayed(key);
-        Map<String,List<Map<String,Object>>> buff = this.buffers.get(key);
-        List<Integer> tokens = buff.keySet().stream().map(e -> Integer.parseInt(e)).sorted().toList();
-        for (Integer t : tokens) {
-            String token = String.valueOf(t);
-            try {
-                insertRows(buff.get(token), token, database, schema, table);
-            }
-            catch (SFException ex) {
-                makeChannelValid(database, schema, table);
-            }
-        }
+    // With ndjson, the body is one JSON object per line rather than a JSON array.
+    // At most errors_limit error rows are kept for the response (negative for all of them).
+    public SnowpipeInsertResponse saveToSnowflake(String database, String schema, String table, InputStream body, boolean ndjson, int errors_limit) {
+        return this.engine.save(database, schema, table, body, ndjson, errors_limit);
     }
 
-    // Metrics Reporting
-    private static ScheduledExecutorService scheduler;
-    private static void startReporter() {
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        Runnable task = SnowpipeRestRepository::fetchAndPrintMetrics;
-        scheduler.scheduleAtFixedRate(task, 30, 30, TimeUnit.SECONDS);
+    // The body is an Arrow IPC stream; its columns are converted straight to rows without going through JSON
+    public SnowpipeInsertResponse saveArrowToSnowflake(String database, String schema, String table, InputStream body, int errors_limit) {
+        SnowpipeRestTableState state = this.engine.open(database, schema, table);
+        return this.engine.saveRows(state, new SnowpipeRestArrowReader(this.arrow_allocator, body), errors_limit);
     }
 
-    private static void fetchAndPrintMetrics() {
-        logger.info("Fetching JMX metrics");
-        try {
-            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
-            // Latency
-            fetchAndPrintMetrics(mBeanServer, "snowflake.ingest.sdk:clientName=SNOWPIPE_REST_*,name=latency.*", "JMX latency: ");
-
-            // Throughput
-            fetchAndPrintMetrics(mBeanServer, "snowflake.ingest.sdk:clientName=SNOWPIPE_REST_*,name=throughput.*", "JMX throughput: ");
-
-            // Blob
-            fetchAndPrintMetrics(mBeanServer, "snowflake.ingest.sdk:clientName=SNOWPIPE_REST_*,name=blob.*", "JMX blob: ");
-
-        } catch (Exception e) {
-            logger.error("Unable to log JMX metrics", e);
-        }
+    // Completes once Snowflake has committed every batch of the response
+    public CompletableFuture<SnowpipeInsertResponse> awaitCommit(SnowpipeInsertResponse sp_resp) {
+        return this.engine.awaitCommit(sp_resp);
     }
 
-    private static void fetchAndPrintMetrics(MBeanServer mBeanServer, String queryNameString, String logPrefix) throws Exception {
-        ObjectName queryName = new ObjectName(queryNameString);
-        Set<ObjectName> names = mBeanServer.queryNames(queryName, null);
-        if (names.isEmpty()) {
-            logger.info("No JMX metrics found: " + queryNameString);
-        }
-        else {
-            for (ObjectName name: names) {
-                MBeanInfo info = mBeanServer.getMBeanInfo(name);
-                MBeanAttributeInfo[] attrInfo = info.getAttributes();
-                Map<String, Object> attributes = new LinkedHashMap<>();
-                for (MBeanAttributeInfo attr : attrInfo) {
-                    if (attr.isReadable())
-                        attributes.put(attr.getName(), mBeanServer.getAttribute(name, attr.getName()));
-                }
-                // Constructing the key-value pair string dynamically
-                StringBuilder kvPairs = new StringBuilder();
-                kvPairs.append("metric=" + name.getCanonicalName());
-                for (Map.Entry<String, Object> entry : attributes.entrySet()) {
-                    if (kvPairs.length() > 0) {
-                        kvPairs.append(", ");
-                    }
-                    kvPairs.append(entry.getKey()).append("=").append(entry.getValue());
-                }
-                logger.info(logPrefix + kvPairs);
-            }
-        }
+    // Exports the SDK's JMX metrics as gauges, checking for new SDK beans every 30 seconds
+    private void startReporter(String client_name) throws Exception {
+        SnowpipeRestSdkMetrics sdk_metrics = new SnowpipeRestSdkMetrics(this.meter_registry, ManagementFactory.getPlatformMBeanServer(), client_name);
+        this.reporter = Executors.newSingleThreadScheduledExecutor(this.engine.threadFactory("snowpiperest-metrics-"));
+        this.reporter.scheduleWithFixedDelay(sdk_metrics::register, 0, 30, TimeUnit.SECONDS);
     }
-
 }
@@ -0,0 +1,71 @@
+package com.example.SnowpipeRest;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Exports the Snowpipe Streaming SDK's JMX metrics (latency, throughput and blob statistics) as
+// Micrometer gauges. Each readable numeric attribute of an SDK bean named snowflake.ingest.sdk:name=X
+// becomes the gauge snowflake.ingest.sdk.X tagged with statistic=<attribute>. The SDK registers its
+// beans when the client is created, so register() is repeated to pick up any that appear later.
+public class SnowpipeRestSdkMetrics {
+    private final MeterRegistry registry;
+    private final MBeanServer server;
+    private final ObjectName query;
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    public SnowpipeRestSdkMetrics(MeterRegistry registry, MBeanServer server, String client_name) throws Exception {
+        this.registry = registry;
+        this.server = server;
+        this.query = new ObjectName(String.format("snowflake.ingest.sdk:clientName=%s,*", client_name));
+    }
+
+    public void register() {
+        try {
+            for (ObjectName name : this.server.queryNames(this.query, null)) {
+                String metric = name.getKeyProperty("name");
+                if (null == metric)
+                    continue;
+                for (MBeanAttributeInfo attr : this.server.getMBeanInfo(name).getAttributes()) {
+                    if (!attr.isReadable() || !isNumeric(attr.getType()))
+                        continue;
+                    if (!this.registered.add(name.getCanonicalName() + "/" + attr.getName()))
+                        continue;
+                    Gauge.builder("snowflake.ingest.sdk." + metric, name, n -> read(n, attr.getName()))
+                            .description("Snowpipe Streaming SDK metric " + metric)
+                            .tag("statistic", attr.getName())
+                            .register(this.registry);
+                }
+            }
+        }
+        catch (Exception e) {
+            SnowpipeRestRepository.logger.error("Unable to export SDK JMX metrics", e);
+        }
+    }
+
+    private double read(ObjectName name, String attribute) {
+        try {
+            Object value = this.server.getAttribute(name, attribute);
+            return (value instanceof Number n) ? n.doubleValue() : Double.NaN;
+        }
+        catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isNumeric(String type) {
+        switch (type) {
+            case "long": case "int": case "double": case "float":
+            case "java.lang.Long": case "java.lang.Integer": case "java.lang.Double": case "java.lang.Float":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.SnowpipeRest;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class SnowpipeRestUnsupportedEncodingException extends ResponseStatusException {
+    public SnowpipeRestUnsupportedEncodingException(String message) {
+        super(HttpStatus.UNSUPPORTED_MEDIA_TYPE, message);
+    }
+}
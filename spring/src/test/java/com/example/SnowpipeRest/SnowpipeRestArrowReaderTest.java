@@ -0,0 +1,170 @@
+package com.example.SnowpipeRest;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMicroVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Writes Arrow IPC streams with the Arrow writer and reads them back as rows. Every test also
+// checks the reader gave back all the Arrow memory it took.
+public class SnowpipeRestArrowReaderTest {
+    private static final long MICROS = 1_700_000_000_123_456L;
+    private static final long MILLIS = 1_700_000_000_123L;
+    private static final String ZONE = "Europe/Paris";
+
+    private final BufferAllocator writing = new RootAllocator();
+    private final BufferAllocator reading = new RootAllocator();
+
+    @AfterEach
+    public void closeAllocators() {
+        assertEquals(0, this.reading.getAllocatedMemory());
+        this.reading.close();
+        this.writing.close();
+    }
+
+    @Test
+    public void readsEachColumnAsTheValueTheSdkTakes() throws IOException {
+        List<Map<String,Object>> rows = readAll(stream(3, 2));
+        assertEquals(5, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            // Row numbers start again in each batch
+            int n = (i < 3) ? i : i - 3;
+            Map<String,Object> expected = new HashMap<String,Object>();
+            expected.put("ID", n);
+            expected.put("NAME", (1 == n) ? null : String.format("row é %d", n));
+            expected.put("OK", 0 == n % 2);
+            expected.put("DAY", LocalDate.ofEpochDay(19000 + n));
+            expected.put("AMOUNT", new BigDecimal(String.format("%d.25", n)));
+            expected.put("TS", LocalDateTime.ofEpochSecond(MICROS / 1000000 + n, (int)(MICROS % 1000000) * 1000, ZoneOffset.UTC));
+            expected.put("TS_TZ", OffsetDateTime.ofInstant(Instant.ofEpochMilli(MILLIS + n), ZoneId.of(ZONE)));
+            assertEquals(expected, rows.get(i));
+        }
+    }
+
+    @Test
+    public void rowsShareTheirBatchsBytes() throws IOException {
+        byte[] body = stream(3, 4);
+        List<Long> sizes = new ArrayList<Long>();
+        try (SnowpipeRestArrowReader reader = new SnowpipeRestArrowReader(this.reading, new ByteArrayInputStream(body))) {
+            while (null != reader.next())
+                sizes.add(reader.getLastRowBytes());
+        }
+        long total = 0;
+        for (long size : sizes)
+            total += size;
+        // Each batch's bytes are split evenly across its rows, with the remainder on its last row
+        for (List<Long> batch : List.of(sizes.subList(0, 3), sizes.subList(3, 7))) {
+            long share = batch.get(0);
+            assertTrue(share > 0);
+            for (int i = 1; i < batch.size() - 1; i++)
+                assertEquals(share, (long)batch.get(i));
+            long last = batch.get(batch.size() - 1);
+            assertTrue(last >= share && last < share + batch.size(), batch.toString());
+        }
+        assertTrue(total < body.length);
+    }
+
+    @Test
+    public void emptyStreamHasNoRows() throws IOException {
+        assertEquals(0, readAll(stream()).size());
+    }
+
+    @Test
+    public void rejectsABodyThatIsNotAnArrowStream() throws IOException {
+        assertThrows(SnowpipeRestArrowParseException.class, () -> readAll(new byte[0]));
+
+        // Cut off part way through the record batch
+        byte[] body = stream(3);
+        byte[] truncated = Arrays.copyOf(body, body.length - 20);
+        try (SnowpipeRestArrowReader reader = new SnowpipeRestArrowReader(this.reading, new ByteArrayInputStream(truncated))) {
+            assertThrows(SnowpipeRestArrowParseException.class, reader::next);
+        }
+    }
+
+    @Test
+    public void rejectsAnUnknownTimeZone() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TimeStampMilliTZVector ts = new TimeStampMilliTZVector("TS_TZ", this.writing, "Mars/Olympus_Mons");
+             VectorSchemaRoot root = VectorSchemaRoot.of(ts);
+             ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+            writer.start();
+            writer.end();
+        }
+        assertThrows(SnowpipeRestArrowParseException.class, () -> readAll(out.toByteArray()));
+    }
+
+    private List<Map<String,Object>> readAll(byte[] body) {
+        List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+        try (SnowpipeRestArrowReader reader = new SnowpipeRestArrowReader(this.reading, new ByteArrayInputStream(body))) {
+            for (Map<String,Object> row = reader.next(); null != row; row = reader.next())
+                rows.add(row);
+        }
+        return rows;
+    }
+
+    // A stream with one record batch of each of the given sizes
+    private byte[] stream(int... batches) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (IntVector id = new IntVector("ID", this.writing);
+             VarCharVector name = new VarCharVector("NAME", this.writing);
+             BitVector ok = new BitVector("OK", this.writing);
+             DateDayVector day = new DateDayVector("DAY", this.writing);
+             DecimalVector amount = new DecimalVector("AMOUNT", this.writing, 10, 2);
+             TimeStampMicroVector ts = new TimeStampMicroVector("TS", this.writing);
+             TimeStampMilliTZVector ts_tz = new TimeStampMilliTZVector("TS_TZ", this.writing, ZONE);
+             VectorSchemaRoot root = VectorSchemaRoot.of(id, name, ok, day, amount, ts, ts_tz);
+             ArrowStreamWriter writer = new ArrowStreamWriter(root, null, out)) {
+            writer.start();
+            for (int rows : batches) {
+                root.allocateNew();
+                for (int n = 0; n < rows; n++) {
+                    id.setSafe(n, n);
+                    if (1 == n)
+                        name.setNull(n);
+                    else
+                        name.setSafe(n, String.format("row é %d", n).getBytes(StandardCharsets.UTF_8));
+                    ok.setSafe(n, (0 == n % 2) ? 1 : 0);
+                    day.setSafe(n, 19000 + n);
+                    amount.setSafe(n, new BigDecimal(String.format("%d.25", n)));
+                    ts.setSafe(n, MICROS + n * 1000000L);
+                    ts_tz.setSafe(n, MILLIS + n);
+                }
+                root.setRowCount(rows);
+                writer.writeBatch();
+            }
+            writer.end();
+        }
+        return out.toByteArray();
+    }
+}
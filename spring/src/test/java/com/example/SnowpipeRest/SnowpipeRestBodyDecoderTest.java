@@ -0,0 +1,107 @@
+package com.example.SnowpipeRest;
+
+import com.example.SnowpipeRest.core.SnowpipeRestPayloadTooLargeException;
+import com.example.SnowpipeRest.core.SnowpipeRestRowReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SnowpipeRestBodyDecoderTest {
+    private static final byte[] BODY = "[{\"ID\": 1, \"NAME\": \"a\"}, {\"ID\": 2, \"NAME\": \"b\"}]".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void leavesAnUnencodedBodyAlone() {
+        InputStream body = new ByteArrayInputStream(BODY);
+        assertSame(body, SnowpipeRestBodyDecoder.decode(body, null, 10));
+        assertSame(body, SnowpipeRestBodyDecoder.decode(body, " ", 10));
+        // Only decoded bytes count against the limit
+        assertSame(body, SnowpipeRestBodyDecoder.decode(body, "identity", 10));
+    }
+
+    @Test
+    public void decodesGzip() throws IOException {
+        for (String coding : new String[] {"gzip", "x-gzip", "GZip"})
+            assertArrayEquals(BODY, decode(gzip(BODY), coding, 0));
+    }
+
+    @Test
+    public void decodesZstd() throws IOException {
+        assertArrayEquals(BODY, decode(zstd(BODY), "zstd", 0));
+    }
+
+    @Test
+    public void undoesCodingsLastToFirst() throws IOException {
+        assertArrayEquals(BODY, decode(gzip(zstd(BODY)), "zstd, gzip", 0));
+        assertArrayEquals(BODY, decode(gzip(BODY), "identity, gzip", 0));
+    }
+
+    @Test
+    public void limitsHowFarABodyExpands() throws IOException {
+        byte[] large = new byte[100000];
+        // A body of exactly the limit is let through
+        assertEquals(large.length, decode(gzip(large), "gzip", large.length).length);
+        assertThrows(SnowpipeRestPayloadTooLargeException.class, () -> decode(gzip(large), "gzip", large.length - 1));
+        assertThrows(SnowpipeRestPayloadTooLargeException.class, () -> decode(zstd(large), "zstd", 1000));
+    }
+
+    @Test
+    public void limitIsReportedThroughTheRowReader() throws IOException {
+        StringBuilder rows = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++)
+            rows.append(i > 0 ? "," : "").append(String.format("{\"ID\": %d}", i));
+        byte[] body = gzip(rows.append(']').toString().getBytes(StandardCharsets.UTF_8));
+
+        // The parser reads ahead, so the limit may be hit as soon as it starts
+        assertThrows(SnowpipeRestPayloadTooLargeException.class, () -> {
+            InputStream decoded = SnowpipeRestBodyDecoder.decode(new ByteArrayInputStream(body), "gzip", 1000);
+            try (SnowpipeRestRowReader reader = new SnowpipeRestRowReader(new ObjectMapper(), decoded)) {
+                while (null != reader.next())
+                    ;
+            }
+        });
+    }
+
+    @Test
+    public void rejectsUnknownAndCorruptEncodings() {
+        assertThrows(SnowpipeRestUnsupportedEncodingException.class, () -> SnowpipeRestBodyDecoder.decode(new ByteArrayInputStream(BODY), "br", 0));
+        assertThrows(SnowpipeRestUnsupportedEncodingException.class, () -> SnowpipeRestBodyDecoder.decode(new ByteArrayInputStream(BODY), "gzip, deflate", 0));
+        // Not gzip at all: the header is read as the stream is set up
+        assertThrows(SnowpipeRestInvalidParameterException.class, () -> SnowpipeRestBodyDecoder.decode(new ByteArrayInputStream(BODY), "gzip", 0));
+    }
+
+    private static byte[] decode(byte[] body, String coding, long max_bytes) throws IOException {
+        try (InputStream in = SnowpipeRestBodyDecoder.decode(new ByteArrayInputStream(body), coding, max_bytes)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] zstd(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream zs = new ZstdOutputStream(out)) {
+            zs.write(body);
+        }
+        return out.toByteArray();
+    }
+}